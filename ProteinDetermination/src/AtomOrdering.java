@@ -0,0 +1,431 @@
+/*
+ * The purpose of this class is to choose the order in which the atoms of the
+ * backbone are placed, so that restraints can prune the tree as early and as
+ * often as possible. An atom can only be placed below three atoms, the last
+ * three placed, whose distances to it and among each other are all known;
+ * it then has two candidate positions, and only a restraint to an atom placed
+ * before those three can tell them apart. The order is built greedily: the
+ * first three atoms of the backbone come first, so that the frame of every
+ * solution stays the same, and each following atom is the unplaced atom that
+ * can be placed below the last three with the most restraints to atoms placed
+ * before them. When no unplaced atom can be placed, an atom already placed is
+ * placed again, which moves the last three atoms on without branching, since
+ * its restraint of length zero to its earlier copy prunes one of its two
+ * candidate positions.
+ *
+ * The atoms of the order are given as a backbone of their own, with its bonds,
+ * restraint index and torsion matrices, so the search runs on it unchanged,
+ * and each solution is written with its atoms in their original order.
+ *
+ * The ordered search is a different search rather than the same one in
+ * another order. Each atom is placed from its distances to the three atoms
+ * before it in the order, which are kept exactly, while the other distances
+ * are only tested, and the DME of a partial structure is taken over the atoms
+ * placed so far, so it depends on the order too. Ordering is therefore only
+ * used with interval pruning, whose test of each restraint on its own gives
+ * the same verdict whichever order the atoms come in. Even then the two
+ * searches keep different distances exactly, so they can find different
+ * families of solutions: with -full and -interval 0.1, 2ncs has 524288
+ * solutions in the backbone's order and 16384 in the chosen one.
+ */
+
+import java.util.*;
+
+public class AtomOrdering {
+
+    //largest distance, in Angstrom, between the two placements of a repeated
+    //atom for them to be taken as the same atom when pruning by bounds
+    private static final float REPEAT_TOLERANCE = 1e-3f;
+
+    //restraints among the atoms, by original position
+    private RestraintIndex restraints;
+
+    //number of atoms ordered, the first atoms of the backbone
+    private int atoms;
+
+    //original position of the atom placed at each level, level k+1 at k
+    private int[] order;
+    private int levels;
+
+    //level at which each atom is first placed, less one
+    private int[] first;
+
+    //constructor. orders the first given number of atoms of a backbone whose
+    //restraints are given by original position.
+    public AtomOrdering(RestraintIndex nmr, int atoms) {
+
+        this.restraints = nmr;
+        this.atoms = atoms;
+        this.order = new int[Math.max(2*atoms, 4)];
+        this.first = new int[atoms];
+        Arrays.fill(this.first, -1);
+
+        for(int p = 0; p < Math.min(atoms, 3); p++)
+            this.append(p);
+
+        int placed = this.levels;
+
+        while(placed < atoms) {
+
+            int a = this.order[this.levels-3], b = this.order[this.levels-2], c = this.order[this.levels-1];
+            int next = this.best_unplaced(a, b, c);
+
+            if(next >= 0) {
+                this.append(next);
+                placed++;
+                continue;
+            }
+
+            int[] repeats = this.find_repeats(a, b, c);
+
+            //the remaining atoms can't be reached from the atoms placed
+            if(repeats == null)
+                break;
+
+            for(int r : repeats)
+                this.append(r);
+        }
+    }
+
+    //appends an atom to the order
+    private void append(int p) {
+
+        if(this.levels == this.order.length)
+            this.order = Arrays.copyOf(this.order, 2*this.levels);
+
+        if(this.first[p] < 0)
+            this.first[p] = this.levels;
+
+        this.order[this.levels++] = p;
+    }
+
+    //the unplaced atom that can be placed below atoms a, b and c with the
+    //most restraints to other placed atoms, the earliest in the backbone on a
+    //tie, or -1 if there is none
+    private int best_unplaced(int a, int b, int c) {
+
+        int best = -1, bestScore = -1;
+
+        for(int e = this.restraints.get_rowStart(c); e < this.restraints.get_rowEnd(c); e++) {
+
+            int u = this.restraints.get_partner(e);
+
+            if(u >= this.atoms || this.first[u] >= 0 || !this.is_placeable(u, a, b, c))
+                continue;
+
+            int score = this.pruning_restraints(u, a, b, c);
+
+            if(score > bestScore) {
+                best = u;
+                bestScore = score;
+            }
+        }
+
+        return best;
+    }
+
+    //the shortest run of placed atoms that, placed again below atoms a, b
+    //and c, lets an unplaced atom be placed next, or null if there is none.
+    //the last three atoms are searched breadth first, each being reached at
+    //most once.
+    private int[] find_repeats(int a, int b, int c) {
+
+        HashMap<List<Integer>, List<Integer>> previous = new HashMap<>();
+        ArrayDeque<List<Integer>> queue = new ArrayDeque<>();
+
+        List<Integer> start = Arrays.asList(a, b, c);
+        previous.put(start, null);
+        queue.add(start);
+
+        while(!queue.isEmpty()) {
+
+            List<Integer> w = queue.poll();
+
+            if(w != start && this.best_unplaced(w.get(0), w.get(1), w.get(2)) >= 0) {
+
+                //the atoms repeated are the last atoms of each window on the
+                //way back to the start
+                ArrayList<Integer> repeats = new ArrayList<>();
+                for(List<Integer> s = w; s != start; s = previous.get(s))
+                    repeats.add(s.get(2));
+
+                Collections.reverse(repeats);
+
+                int[] r = new int[repeats.size()];
+                for(int k = 0; k < r.length; k++)
+                    r[k] = repeats.get(k);
+
+                return r;
+            }
+
+            for(int e = this.restraints.get_rowStart(w.get(2)); e < this.restraints.get_rowEnd(w.get(2)); e++) {
+
+                int r = this.restraints.get_partner(e);
+
+                if(r >= this.atoms || this.first[r] < 0 || !this.is_placeable(r, w.get(0), w.get(1), w.get(2)))
+                    continue;
+
+                List<Integer> next = Arrays.asList(w.get(1), w.get(2), r);
+
+                if(!previous.containsKey(next)) {
+                    previous.put(next, w);
+                    queue.add(next);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    //whether atom u can be placed below atoms a, b and c: it is none of them
+    //and its distance to each of them is known
+    private boolean is_placeable(int u, int a, int b, int c) {
+
+        return u != a && u != b && u != c
+            && this.find(u, a) >= 0 && this.find(u, b) >= 0 && this.find(u, c) >= 0;
+    }
+
+    //number of restraints of atom u to placed atoms other than a, b and c
+    private int pruning_restraints(int u, int a, int b, int c) {
+
+        int count = 0;
+
+        for(int e = this.restraints.get_rowStart(u); e < this.restraints.get_rowEnd(u); e++) {
+
+            int q = this.restraints.get_partner(e);
+
+            if(q < this.atoms && this.first[q] >= 0 && q != a && q != b && q != c)
+                count++;
+        }
+
+        return count;
+    }
+
+    //entry of the restraint between atoms p and q in the row of p, or -1 if
+    //there is none. rows are sorted by partner.
+    private int find(int p, int q) {
+
+        int lo = this.restraints.get_rowStart(p), hi = this.restraints.get_rowEnd(p)-1;
+
+        while(lo <= hi) {
+
+            int mid = (lo + hi) >>> 1;
+            int partner = this.restraints.get_partner(mid);
+
+            if(partner < q)
+                lo = mid+1;
+            else
+            if(partner > q)
+                hi = mid-1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    //whether every atom was placed
+    public boolean is_complete()
+        {return this.count_placed() == this.atoms;}
+
+    //number of atoms placed at least once
+    private int count_placed() {
+
+        int count = 0;
+        for(int f : this.first)
+            if(f >= 0)
+                count++;
+
+        return count;
+    }
+
+    //getter for number of levels, which counts repeated atoms
+    public int get_levels()
+        {return this.levels;}
+
+    //getter for number of atoms ordered
+    public int get_atoms()
+        {return this.atoms;}
+
+    //getter for the original position of the atom placed at a level
+    public int get_atom(int level)
+        {return this.order[level-1];}
+
+    //the bonds of the backbone in the new order, between the atoms of each
+    //pair of consecutive levels, taken from the backbone in original order
+    public ArrayList<Distance> to_bonds(ArrayList<Atom> backbone) {
+
+        ArrayList<Distance> bonds = new ArrayList<>(this.levels-1);
+
+        for(int k = 1; k < this.levels; k++)
+            bonds.add(new Distance(backbone.get(this.order[k-1]), backbone.get(this.order[k])));
+
+        return bonds;
+    }
+
+    //the restraints of the backbone in the new order, by level less one.
+    //each restraint is kept once, between an atom where it is first placed
+    //and the latest placement of the other. each repeated atom is given a
+    //restraint of length zero to its previous placement, within the
+    //tolerance of the restraints when pruning by bounds.
+    public RestraintIndex to_restraintIndex(float tolerance) {
+
+        PairBuffer pairs = new PairBuffer(this.restraints.get_entries()/2 + this.levels);
+        int[] latest = new int[this.atoms];
+        Arrays.fill(latest, -1);
+
+        float slack = Math.max(tolerance, REPEAT_TOLERANCE);
+
+        for(int k = 0; k < this.levels; k++) {
+
+            int p = this.order[k];
+
+            if(latest[p] >= 0)
+                pairs.add(latest[p], k, 0, 0, slack);
+            else
+                for(int e = this.restraints.get_rowStart(p); e < this.restraints.get_rowEnd(p); e++) {
+
+                    int q = this.restraints.get_partner(e);
+
+                    if(q < this.atoms && latest[q] >= 0)
+                        pairs.add(latest[q], k, this.restraints.get_target(e), this.restraints.get_lower(e), this.restraints.get_upper(e));
+                }
+
+            latest[p] = k;
+        }
+
+        pairs.sort(this.levels);
+
+        return pairs.to_restraintIndex(this.levels);
+    }
+
+    //the torsion matrices of the backbone in the new order, from the
+    //distances among each atom and the three atoms placed before it
+    public TorsionTable to_torsionTable() {
+
+        PairBuffer pairs = new PairBuffer(3*this.levels);
+
+        for(int k = 1; k < this.levels; k++)
+            for(int j = Math.max(0, k-3); j < k; j++)
+                pairs.add(j, k, this.restraints.get_target(this.find(this.order[j], this.order[k])));
+
+        return new TorsionTable(pairs, this.levels);
+    }
+
+    //maps a solution of the backbone in the new order, deepest node first,
+    //to one of the atoms in their original order, each atom being taken from
+    //where it was first placed
+    public Node[] map_solution(Node[] sol) {
+
+        Node[] m = new Node[this.atoms];
+
+        for(int p = this.atoms-1; p >= 0; p--) {
+
+            int k = this.atoms-1-p;
+            m[k] = new Node(p+1, sol[sol.length-1-this.first[p]].get_atom(), null, false, false);
+
+            if(k > 0)
+                m[k-1].set_parent(m[k]);
+        }
+
+        return m;
+    }
+
+    //maps every solution as above, keeping their order
+    public ArrayList<Node[]> map_solutions(ArrayList<Node[]> solutions) {
+
+        ArrayList<Node[]> mapped = new ArrayList<>(solutions.size());
+
+        for(Node[] sol : solutions)
+            mapped.add(this.map_solution(sol));
+
+        return mapped;
+    }
+
+    //levels at which a restraint to an atom placed before the last three
+    //can prune, in the new order and in the original order
+    private int[] count_pruningLevels() {
+
+        int[] count = new int[2];
+        int[] latest = new int[this.atoms];
+        Arrays.fill(latest, -1);
+
+        for(int k = 0; k < this.levels; k++) {
+
+            int p = this.order[k];
+
+            //a repeated atom always prunes one of its positions
+            if(k >= 3 && (latest[p] >= 0 || this.pruning_levelRestraints(p, k, latest) > 0))
+                count[0]++;
+
+            latest[p] = k;
+        }
+
+        for(int p = 3; p < this.atoms; p++)
+            for(int e = this.restraints.get_rowStart(p); e < this.restraints.get_rowEnd(p); e++)
+                if(this.restraints.get_partner(e) < p-3) {
+                    count[1]++;
+                    break;
+                }
+
+        return count;
+    }
+
+    //number of restraints of atom p, first placed at level k+1, to atoms
+    //whose latest placement is before the last three
+    private int pruning_levelRestraints(int p, int k, int[] latest) {
+
+        int count = 0;
+
+        for(int e = this.restraints.get_rowStart(p); e < this.restraints.get_rowEnd(p); e++) {
+
+            int q = this.restraints.get_partner(e);
+
+            if(q < this.atoms && latest[q] >= 0 && latest[q] < k-3)
+                count++;
+        }
+
+        return count;
+    }
+
+    //prints to screen the order chosen and how many of its levels can prune
+    public void print_summary() {
+
+        int[] pruning = this.count_pruningLevels();
+        int repeats = this.levels - this.count_placed();
+
+        StringBuilder sb = new StringBuilder();
+        for(int k = 0; k < this.levels; k++)
+            sb.append(k > 0 ? " " : "").append(this.order[k]+1);
+
+        System.out.println("ATOM ORDERING");
+        System.out.println("atoms ordered:            " + this.count_placed() + " of " + this.atoms);
+        System.out.println("levels (with repeats):    " + this.levels + " (" + repeats + ")");
+        System.out.println("pruning levels, ordered:  " + pruning[0]);
+        System.out.println("pruning levels, original: " + pruning[1]);
+        System.out.println("order:                    " + sb);
+        System.out.println();
+    }
+
+    //passes every solution to the consumer it wraps once it is mapped back
+    //to the atoms in their original order
+    public static class MappingConsumer implements SolutionConsumer {
+
+        private SolutionConsumer consumer;
+        private AtomOrdering ordering;
+
+        public MappingConsumer(SolutionConsumer c, AtomOrdering o) {
+
+            this.consumer = c;
+            this.ordering = o;
+        }
+
+        @Override
+        public void accept(Node[] sol, double dme)
+            {this.consumer.accept(this.ordering.map_solution(sol), dme);}
+
+        @Override
+        public void finish()
+            {this.consumer.finish();}
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * The purpose of this class is to solve many proteins in one run, such as the
+ * entries of a benchmark set. Each PDB file of a directory, or each file
+ * listed in a manifest, is an independent job: its data is prepared and its
+ * backbone is solved by the budgeted search, and its solutions are written to
+ * a directory of its own. The jobs are scheduled on a shared work-stealing
+ * pool, and each is held to a memory and a time budget, so a protein that
+ * explodes the tree stops with the solutions found so far rather than
+ * starving the others. Once every job has finished, the throughput of the run
+ * and the latency percentiles of its jobs are printed and written to a
+ * summary file.
+ *
+ * usage: java BatchDriver <directory | manifest> [output directory] [options]
+ *
+ * options are those of ProteinDetermination, along with:
+ *   -jobs n   number of proteins solved at once (the number of cores unless
+ *             given)
+ *
+ * the memory budget, unless given with -memory, is the share of the heap of
+ * each job solved at once, and the time budget, unless given with -time, is
+ * ten minutes per job. options that choose another search, or that only
+ * apply to a single protein, are refused, since every job is solved by the
+ * budgeted search.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchDriver {
+
+    //PDB files, and the extensions of the files taken from a directory
+    private static final String[] EXTENSIONS = {".pdb", ".ent", ".txt"};
+
+    //name of the summary written to the output directory
+    private static final String SUMMARY = "batch_summary.txt";
+
+    //time budget of each job, in seconds, unless given with -time
+    private static final double DEFAULT_TIME = 600;
+
+    //options of ProteinDetermination the budgeted search of a job can't 
+    //honour
+    private static final String[] UNSUPPORTED = {"-dfs", "-threads", "-split", "-speedup", "-symmetric", "-enantiomer",
+                                                 "-beam", "-bestfirst", "-cluster", "-checkpoint", "-verify"};
+
+    //options given to every job
+    private String[] options;
+
+    //directory each job's directory is made in
+    private File outputDir;
+
+    //number of jobs solved at once
+    private int parallelism;
+
+    //work-stealing pool the jobs are solved on
+    private ForkJoinPool pool;
+
+    //constructor
+    public BatchDriver(String[] jobOptions, File out, int jobs) {
+
+        this.options = jobOptions;
+        this.outputDir = out;
+        this.parallelism = Math.max(1, jobs);
+        this.pool = new ForkJoinPool(this.parallelism);
+    }
+
+    public static void main(String[] args) {
+
+        if(args.length < 1) {
+            System.out.println("usage: java BatchDriver <directory | manifest> [output directory] [options]");
+            return;
+        }
+
+        File input = new File(args[0]);
+        int first = 1;
+        File out = new File("batch");
+
+        if(args.length > 1 && !args[1].startsWith("-")) {
+            out = new File(args[1]);
+            first = 2;
+        }
+
+        //-jobs is taken out, the other options are given to every job
+        int jobs = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> options = new ArrayList<>();
+
+        for(int i = first; i < args.length; i++) {
+
+            if(args[i].equals("-jobs") && i+1 < args.length)
+                jobs = Integer.parseInt(args[++i]);
+            else
+                options.add(args[i]);
+        }
+
+        for(String o : UNSUPPORTED)
+            if(options.contains(o)) {
+                System.out.println("Every job is solved by the budgeted search, so " + o + " isn't supported by BatchDriver.");
+                return;
+            }
+
+        //options that ProteinDetermination itself can't run together
+        ProteinDetermination check = new ProteinDetermination();
+        check.parse_args(options.toArray(new String[0]));
+        String unsupported = check.find_unsupported();
+        if(unsupported != null) {
+            System.out.println(unsupported);
+            return;
+        }
+
+        ArrayList<File> files;
+
+        try {
+            files = find_inputs(input);
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't read inputs: " + e.getMessage());
+            return;
+        }
+
+        if(files.isEmpty()) {
+            System.out.println("No PDB files found in " + input);
+            return;
+        }
+
+        if(!out.isDirectory() && !out.mkdirs()) {
+            System.out.println("Couldn't create " + out);
+            return;
+        }
+
+        BatchDriver bd = new BatchDriver(options.toArray(new String[0]), out, jobs);
+        bd.run(files);
+        bd.shutdown();
+    }
+
+    //the PDB files of a directory, in name order, or the files listed in a
+    //manifest, one per line. blank lines and lines beginning with # are
+    //skipped, and relative paths are taken from the manifest's directory.
+    public static ArrayList<File> find_inputs(File input) throws IOException {
+
+        ArrayList<File> files = new ArrayList<>();
+
+        if(input.isDirectory()) {
+
+            File[] listed = input.listFiles();
+
+            if(listed != null)
+                for(File f : listed)
+                    if(f.isFile() && has_extension(f.getName()))
+                        files.add(f);
+
+            Collections.sort(files);
+            return files;
+        }
+
+        try (BufferedReader br = new BufferedReader(new FileReader(input))) {
+
+            for(String line = br.readLine(); line != null; line = br.readLine()) {
+
+                line = line.trim();
+
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                File f = new File(line);
+                files.add(f.isAbsolute() ? f : new File(input.getAbsoluteFile().getParentFile(), line));
+            }
+        }
+
+        return files;
+    }
+
+    //whether a file name ends in one of the PDB extensions
+    private static boolean has_extension(String name) {
+
+        for(String e : EXTENSIONS)
+            if(name.toLowerCase().endsWith(e))
+                return true;
+
+        return false;
+    }
+
+    //solves every file as a job of its own, and prints and writes the
+    //summary of the run. returns the result of each job, in file order.
+    public Job[] run(ArrayList<File> files) {
+
+        Job[] jobs = new Job[files.size()];
+        HashSet<String> names = new HashSet<>();
+
+        //each job's directory is named after its file, numbered if another
+        //file has the same name
+        for(int k = 0; k < jobs.length; k++) {
+
+            String name = files.get(k).getName();
+            int dot = name.lastIndexOf('.');
+            if(dot > 0)
+                name = name.substring(0, dot);
+
+            String unique = name;
+            for(int n = 2; !names.add(unique); n++)
+                unique = name + "_" + n;
+
+            jobs[k] = new Job(files.get(k), new File(this.outputDir, unique));
+        }
+
+        System.out.println("Solving " + jobs.length + " proteins, " + this.parallelism + " at a time...");
+        System.out.println();
+
+        long start = System.nanoTime();
+        this.pool.invoke(new JobTask(jobs, 0, jobs.length));
+        double seconds = (System.nanoTime() - start)/1e9;
+
+        String summary = summarize(jobs, seconds, this.parallelism);
+        System.out.print(summary);
+
+        try (Writer w = new FileWriter(new File(this.outputDir, SUMMARY))) {
+            w.write(summary);
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't write summary: " + e.getMessage());
+        }
+
+        return jobs;
+    }
+
+    //solves a single protein, writing its solutions to its directory
+    private void solve(Job job) {
+
+        long start = System.nanoTime();
+
+        try {
+
+            ProteinDetermination pd = new ProteinDetermination();
+            pd.parse_args(this.options);
+
+            //every job searches under its budgets. unless given, its memory
+            //budget is its share of the heap and its time budget is the 
+            //default, so that no job can hold a worker forever.
+            pd.budgeted = true;
+            if(!Arrays.asList(this.options).contains("-memory"))
+                pd.memoryBudget /= this.parallelism;
+            if(!Arrays.asList(this.options).contains("-time"))
+                pd.timeBudget = (long)(DEFAULT_TIME*1e9);
+
+            DistanceData d = new DistanceData();
+            d.read_atoms_from_file(job.input.getPath(), pd.model);
+
+            if(d.get_all_atoms().isEmpty())
+                throw new IllegalArgumentException("no atoms read");
+
+            pd.residues = d.get_model();
+            RestraintIndex restraints = pd.prepare_data(d);
+            ArrayList<Distance> cov = pd.get_bonds(d);
+
+            if(cov.size() < 2)
+                throw new IllegalArgumentException("backbone has fewer than three atoms");
+
+            int lastLevel = pd.find_lastLevel(cov);
+            job.atoms = pd.ordering == null ? lastLevel : pd.ordering.get_atoms();
+
+            if(!job.output.isDirectory() && !job.output.mkdirs())
+                throw new IOException("couldn't create " + job.output);
+
+            pd.outputDir = job.output.getPath() + File.separator;
+
+            ProteinTree pt = pd.create_tree(cov);
+            HybridSolver hs = new HybridSolver(pd, pd.frontierLimit, pd.memoryBudget, pd.timeBudget);
+            ArrayList<Node[]> found = hs.solve(pt, new int[]{pt.get_node3()}, 3, lastLevel, cov, restraints, null);
+
+            //solutions are given in the original order of the atoms
+            pd.solutions.addAll(pd.ordering == null ? found : pd.ordering.map_solutions(found));
+            if(pd.sideChains != null)
+                pd.solutions = pd.sideChains.complete_all(pd.solutions);
+            pd.print_solutions();
+
+            //a scratch file is deleted as soon as its job is done
+            pd.close_arena(pt.get_arena());
+
+            job.solutions = pd.solutions.size();
+            job.status = hs.get_stopReason() == null ? "finished" : hs.get_stopReason();
+            job.succeeded = true;
+        }
+        catch(IOException | RuntimeException e) {
+            job.status = "failed, " + e;
+        }
+        catch(OutOfMemoryError e) {
+            job.status = "failed, out of memory";
+        }
+
+        job.seconds = (System.nanoTime() - start)/1e9;
+    }
+
+    //the throughput of the run and the latency percentiles of its jobs,
+    //followed by a line for each job
+    public static String summarize(Job[] jobs, double seconds, int parallelism) {
+
+        double[] latencies = new double[jobs.length];
+        int succeeded = 0;
+
+        for(int k = 0; k < jobs.length; k++) {
+            latencies[k] = jobs[k].seconds;
+            if(jobs[k].succeeded)
+                succeeded++;
+        }
+
+        Arrays.sort(latencies);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("BATCH SUMMARY\n");
+        sb.append(String.format("proteins:            %d (%d solved, %d failed)%n", jobs.length, succeeded, jobs.length - succeeded));
+        sb.append(String.format("solved at once:      %d%n", parallelism));
+        sb.append(String.format("wall time (s):       %.3f%n", seconds));
+        sb.append(String.format("proteins per hour:   %.1f%n", succeeded*3600/Math.max(seconds, 1e-9)));
+        sb.append(String.format("latency p50 (s):     %.3f%n", percentile(latencies, .5)));
+        sb.append(String.format("latency p90 (s):     %.3f%n", percentile(latencies, .9)));
+        sb.append(String.format("latency p99 (s):     %.3f%n", percentile(latencies, .99)));
+        sb.append(String.format("latency max (s):     %.3f%n", latencies.length > 0 ? latencies[latencies.length-1] : 0.0));
+        sb.append("\n");
+
+        for(Job j : jobs)
+            sb.append(String.format("%-24s %4d atoms %8d solutions %10.3f s  %s%n", j.output.getName(), j.atoms, j.solutions, j.seconds, j.status));
+
+        sb.append("\n");
+        return sb.toString();
+    }
+
+    //the value below which the given fraction of the sorted values lie, by
+    //the nearest rank
+    private static double percentile(double[] sorted, double fraction) {
+
+        if(sorted.length == 0)
+            return 0;
+
+        int rank = (int)Math.ceil(fraction*sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    //stops the threads of the pool
+    public void shutdown()
+        {this.pool.shutdown();}
+
+    //a protein of the batch, and the result of solving it
+    public static class Job {
+
+        //PDB file read, and the directory its solutions are written to
+        private File input, output;
+
+        //number of atoms placed and of solutions written
+        private int atoms, solutions;
+
+        //whether the job ran to the end, and how it ended
+        private boolean succeeded;
+        private String status;
+
+        //time taken by the job
+        private double seconds;
+
+        Job(File in, File out) {
+
+            this.input = in;
+            this.output = out;
+            this.status = "not run";
+        }
+
+        //getter for whether the job ran to the end
+        public boolean get_succeeded()
+            {return this.succeeded;}
+
+        //getter for how the job ended
+        public String get_status()
+            {return this.status;}
+
+        //getter for number of solutions written
+        public int get_solutions()
+            {return this.solutions;}
+
+        //getter for time taken by the job, in seconds
+        public double get_seconds()
+            {return this.seconds;}
+    }
+
+    //solves the jobs between from and to, splitting the range in half until
+    //a single job remains so idle workers can steal the other half.
+    private class JobTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Job[] jobs;
+        private int from, to;
+
+        JobTask(Job[] j, int f, int t) {
+
+            this.jobs = j;
+            this.from = f;
+            this.to = t;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(this.to - this.from > 1) {
+
+                int mid = (this.from + this.to) >>> 1;
+
+                invokeAll(new JobTask(this.jobs, this.from, mid),
+                          new JobTask(this.jobs, mid, this.to));
+            }
+            else
+            if(this.to - this.from == 1)
+                solve(this.jobs[this.from]);
+        }
+    }
+}
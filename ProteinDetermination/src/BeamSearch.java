@@ -0,0 +1,321 @@
+/*
+ * The purpose of this class is to find the structures that best agree with
+ * the restraints, rather than every structure that agrees with them to within
+ * epsilon. With noisy data a fixed epsilon either prunes every branch or keeps
+ * an exponential number of them, so here no branch is pruned for its DME;
+ * branches are instead ranked by the DME of the atoms placed so far, and only
+ * the best are kept. Two searches are offered:
+ *
+ *   beam        the tree is expanded level by level, and only the width best
+ *               children of each level are kept, so the search creates at
+ *               most twice the width nodes per level and gives the width best
+ *               structures it reaches.
+ *   best first  the best node of the whole tree is expanded next, from a
+ *               queue bounded to a given number of nodes, the worst being
+ *               dropped once it is full, until width structures are found
+ *               or the memory or time budget is reached. The DME of a node
+ *               doesn't bound the DME of the structures below it, so these
+ *               are the first structures reached rather than certainly the
+ *               best, but they come in order of increasing DME.
+ *
+ * Nodes of equal DME are ranked by a tie-break rule, so runs are reproducible:
+ * left prefers the node further left in the tree, right the node further
+ * right, and a number ranks them by a hash of the node seeded with it. In
+ * interval mode a node outside the bounds of a restraint is still pruned.
+ */
+
+import java.util.*;
+
+public class BeamSearch {
+
+    //tie-break rules other than a seed
+    public static final String TIES_LEFT = "left", TIES_RIGHT = "right";
+
+    //expands the nodes and gives the restraints used
+    private ProteinDetermination pd;
+
+    //number of nodes kept per level, or of structures found best first
+    private int width;
+
+    //if set, the search is best first with a queue of at most queueLimit
+    //nodes, and otherwise a beam
+    private boolean bestFirst;
+    private int queueLimit;
+
+    //memory budget in bytes, and time budget in nanoseconds (0 for none),
+    //of the best first search
+    private long memoryBudget, timeBudget;
+
+    //tie-break rule, and the seed of the hash when it's a number
+    private String ties;
+    private long seed;
+
+    //number of nodes created and expanded, and the nodes dropped from the
+    //best first queue
+    private long created, expanded, dropped;
+
+    //why the best first search stopped before finding width structures, or
+    //null if it didn't
+    private String stopReason;
+
+    //lowest and highest DME of the structures found
+    private double bestDME, worstDME;
+
+    //constructor for a beam search
+    public BeamSearch(ProteinDetermination p, int w, String tieRule) {
+
+        this.pd = p;
+        this.width = Math.max(1, w);
+        this.bestFirst = false;
+        this.bestDME = Double.NaN;
+        this.worstDME = Double.NaN;
+        this.set_ties(tieRule);
+    }
+
+    //constructor for a best first search with a queue of at most queue
+    //nodes, under the given budgets
+    public BeamSearch(ProteinDetermination p, int w, String tieRule, int queue, long memoryBytes, long timeNanos) {
+
+        this(p, w, tieRule);
+        this.bestFirst = true;
+        this.queueLimit = Math.max(queue, this.width);
+        this.memoryBudget = memoryBytes;
+        this.timeBudget = timeNanos;
+    }
+
+    //sets the tie-break rule, any rule that isn't left or right being taken
+    //as the seed of the hash
+    private void set_ties(String tieRule) {
+
+        this.ties = tieRule;
+
+        if(!tieRule.equals(TIES_LEFT) && !tieRule.equals(TIES_RIGHT)) {
+
+            try {
+                this.seed = Long.parseLong(tieRule);
+            }
+            catch(NumberFormatException e) {
+                System.out.println("Unknown tie-break rule: " + tieRule + ", using left");
+                this.ties = TIES_LEFT;
+            }
+        }
+    }
+
+    //searches the tree below the frontier, which sits at rootLevel, down to
+    //the last level and returns the best structures found, deepest node
+    //first, in order of increasing DME
+    public ArrayList<Node[]> solve(ProteinTree pt, int[] frontier, int rootLevel, int lastLevel, ArrayList<Distance> covDistances, RestraintIndex nmr) {
+
+        //no node is pruned for its DME
+        PruneTree prune = new PruneTree(pt.get_arena(), nmr, Double.POSITIVE_INFINITY, this.pd.metrics);
+        prune.set_interval(this.pd.intervalPrune);
+
+        if(this.bestFirst)
+            return this.search_bestFirst(pt, prune, frontier, rootLevel, lastLevel, covDistances);
+
+        return this.search_beam(pt, prune, frontier, rootLevel, lastLevel, covDistances);
+    }
+
+    //expands the tree level by level, keeping the width best children of
+    //each level
+    private ArrayList<Node[]> search_beam(ProteinTree pt, PruneTree prune, int[] frontier, int rootLevel, int lastLevel, ArrayList<Distance> covDistances) {
+
+        NodeArena arena = pt.get_arena();
+        ArrayList<Candidate> beam = new ArrayList<>();
+
+        for(int n : frontier)
+            beam.add(this.candidate(arena, n, rootLevel));
+
+        for(int level = rootLevel; level < lastLevel && !beam.isEmpty(); level++) {
+
+            this.pd.label_level(arena, level+1, covDistances);
+
+            //the worst candidate kept sits at the head of the queue, so it
+            //is the one replaced by a better child
+            PriorityQueue<Candidate> best = new PriorityQueue<>(this.width+1, Collections.reverseOrder());
+
+            for(Candidate c : beam) {
+
+                for(int child : this.expand(pt, prune, c.node, c.level)) {
+
+                    best.add(this.candidate(arena, child, level+1));
+
+                    if(best.size() > this.width)
+                        best.poll();
+                }
+            }
+
+            //the beam is kept in tree order, so each level is created from
+            //left to right
+            beam = new ArrayList<>(best);
+            beam.sort((a, b) -> Integer.compare(a.node, b.node));
+        }
+
+        Collections.sort(beam);
+
+        ArrayList<Node[]> solutions = new ArrayList<>();
+        for(Candidate c : beam)
+            this.add_solution(arena, c, solutions);
+
+        return solutions;
+    }
+
+    //expands the best node of the whole tree until the width best structures
+    //are found, the queue is empty or a budget is reached
+    private ArrayList<Node[]> search_bestFirst(ProteinTree pt, PruneTree prune, int[] frontier, int rootLevel, int lastLevel, ArrayList<Distance> covDistances) {
+
+        NodeArena arena = pt.get_arena();
+        long deadline = this.timeBudget > 0 ? System.nanoTime() + this.timeBudget : Long.MAX_VALUE;
+
+        TreeSet<Candidate> queue = new TreeSet<>();
+        for(int n : frontier)
+            queue.add(this.candidate(arena, n, rootLevel));
+
+        //every level is labelled up front, since the queue moves between them
+        for(int level = rootLevel+1; level <= lastLevel; level++)
+            this.pd.label_level(arena, level, covDistances);
+
+        ArrayList<Node[]> solutions = new ArrayList<>();
+
+        while(solutions.size() < this.width && !queue.isEmpty()) {
+
+            if(System.nanoTime() > deadline) {
+                this.stopReason = "time budget reached";
+                break;
+            }
+
+            if(arena.get_size()*arena.get_heapBytesPerNode() > this.memoryBudget) {
+                this.stopReason = "memory budget reached";
+                break;
+            }
+
+            Candidate c = queue.pollFirst();
+
+            if(c.level == lastLevel) {
+                this.add_solution(arena, c, solutions);
+                continue;
+            }
+
+            for(int child : this.expand(pt, prune, c.node, c.level)) {
+
+                queue.add(this.candidate(arena, child, c.level+1));
+
+                if(queue.size() > this.queueLimit) {
+                    queue.pollLast();
+                    this.dropped++;
+                }
+            }
+        }
+
+        return solutions;
+    }
+
+    //adds the structure ending at a candidate of the last level to the
+    //solutions, which are found in order of increasing DME
+    private void add_solution(NodeArena arena, Candidate c, ArrayList<Node[]> solutions) {
+
+        if(solutions.isEmpty())
+            this.bestDME = c.dme;
+        this.worstDME = c.dme;
+
+        solutions.add(arena.extract_solution(c.node, c.level));
+    }
+
+    //creates both children of a node at the given level and returns those
+    //that weren't pruned, left then right
+    private int[] expand(ProteinTree pt, PruneTree prune, int node, int level) {
+
+        this.pd.expand_node(pt, prune, node, level);
+        this.expanded++;
+        this.created += 2;
+
+        NodeArena arena = pt.get_arena();
+        int left = arena.get_size()-2, right = arena.get_size()-1;
+
+        if(arena.get_stop(left))
+            return arena.get_stop(right) ? new int[0] : new int[]{right};
+
+        return arena.get_stop(right) ? new int[]{left} : new int[]{left, right};
+    }
+
+    //the ranking of a node at the given level
+    private Candidate candidate(NodeArena arena, int n, int level) {
+
+        double dme = level > 1 ? Math.sqrt(arena.get_error(n))/(level-1) : 0;
+
+        return new Candidate(n, level, dme, this.tie_key(n));
+    }
+
+    //key ranking nodes of equal DME, lower first. the nodes of a level are
+    //created from left to right, so their ids follow the tree.
+    private long tie_key(int n) {
+
+        if(this.ties.equals(TIES_LEFT))
+            return n;
+
+        if(this.ties.equals(TIES_RIGHT))
+            return -n;
+
+        //the finalizer of splitmix64 over the seeded id
+        long z = this.seed + (n+1)*0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    //getter for why the best first search stopped early, null if it didn't
+    public String get_stopReason()
+        {return this.stopReason;}
+
+    //prints to screen how the search went
+    public void print_summary(int lastLevel, int found) {
+
+        System.out.println(this.bestFirst ? "BEST FIRST SEARCH" : "BEAM SEARCH");
+        System.out.println("atoms placed:       " + lastLevel);
+        System.out.println((this.bestFirst ? "structures wanted:  " : "beam width:         ") + this.width);
+        if(this.bestFirst)
+            System.out.println("queue limit:        " + this.queueLimit + " (" + this.dropped + " dropped)");
+        System.out.println("tie-break:          " + this.ties);
+        System.out.println("nodes expanded:     " + this.expanded);
+        System.out.println("nodes created:      " + this.created);
+        System.out.println("structures found:   " + found);
+        System.out.println("best DME:           " + this.bestDME);
+        System.out.println("worst DME:          " + this.worstDME);
+        if(this.bestFirst)
+            System.out.println("finished:           " + (this.stopReason == null ? "yes" : "no, " + this.stopReason));
+        System.out.println();
+    }
+
+    //a node ranked by its DME, then by its level, deeper first, so that
+    //the best first search reaches structures rather than widening, and
+    //then by its tie key
+    private static class Candidate implements Comparable<Candidate> {
+
+        private int node, level;
+        private double dme;
+        private long tie;
+
+        Candidate(int n, int l, double d, long t) {
+
+            this.node = n;
+            this.level = l;
+            this.dme = d;
+            this.tie = t;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+
+            int c = Double.compare(this.dme, o.dme);
+            if(c == 0)
+                c = Integer.compare(o.level, this.level);
+            if(c == 0)
+                c = Long.compare(this.tie, o.tie);
+            if(c == 0)
+                c = Integer.compare(this.node, o.node);
+
+            return c;
+        }
+    }
+}
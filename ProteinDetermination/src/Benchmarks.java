@@ -0,0 +1,256 @@
+/*
+ * The purpose of this class is to benchmark the hot paths of the program so
+ * that a change to them can be measured rather than guessed at. Four paths
+ * are measured against the bundled 2ncs file: composing a level's torsion
+ * matrix with its parent's, pruning a node at varying restraint counts,
+ * finding the simulated NMR pairs at varying atom counts, and constructing
+ * the backbone down to 10, 17 and 25 atoms, the last with its nodes kept on
+ * the heap and in direct buffers. Each benchmark reports the time
+ * and the bytes allocated per operation, and the results are written as JSON
+ * so they can be compared between builds.
+ *
+ * This is a plain timing loop and not JMH. Every benchmark runs in the same
+ * JVM, one after another, so the JIT profile of one can affect the next.
+ * Work is kept alive by a volatile sink rather than a blackhole, and the
+ * error is the spread of five iterations rather than a confidence interval.
+ * The numbers are only comparable with other runs of this class on the same
+ * machine, and not with JMH results.
+ *
+ * usage: java Benchmarks [pdb file] [json output file]
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+public class Benchmarks {
+
+    //time spent warming up, and measuring, each benchmark
+    private static final long WARMUP_NANOS = 1000000000L, ITERATION_NANOS = 200000000L;
+    private static final int ITERATIONS = 5;
+
+    //results are accumulated here so the JIT cannot discard the work
+    private static volatile double sink;
+
+    //an operation that is repeated reps times and returns a value derived
+    //from its work
+    private interface Operation {
+        double run(int reps);
+    }
+
+    //results of every benchmark, written out as JSON at the end
+    private ArrayList<String> results = new ArrayList<>();
+
+    //measures per thread allocation, if the JVM supports it
+    private com.sun.management.ThreadMXBean threads;
+
+    public static void main(String[] args) throws IOException {
+
+        String pdbPath = args.length > 0 ? args[0] : new File("").getAbsolutePath() + "/src/2ncs.txt";
+        String jsonPath = args.length > 1 ? args[1] : "benchmarks.json";
+
+        DistanceData d = new DistanceData();
+        d.read_atoms_from_file(pdbPath, 1);
+        d.only_proteinBackbone();
+        d.set_pairwisePBB(d.find_pairs(d.get_onlyPBB()));
+        d.generate_covalentPBB_distances(d.get_onlyPBB());
+
+        Benchmarks b = new Benchmarks();
+        b.bench_torsion(d);
+        b.bench_prune(d);
+        b.bench_pairwise(d);
+        b.bench_backbone(d);
+        b.write_json(jsonPath);
+    }
+
+    //constructor
+    public Benchmarks() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+            this.threads = (com.sun.management.ThreadMXBean)bean;
+            this.threads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    //eval_cumuTorsionMatrix with a matrix taken from the torsion table, as
+    //done for every node
+    private void bench_torsion(DistanceData d) {
+
+        final TorsionTable t = new TorsionTable(d.get_pairwisePBB_pairs(), d.get_onlyPBB().size());
+        final double[] parent = new double[TorsionMatrix.SIZE];
+        final double[] out = new double[TorsionMatrix.SIZE];
+        new TorsionMatrix().generate_B1(parent, 0);
+
+        this.measure("torsion", "TorsionTable+eval_cumuTorsionMatrix", reps -> {
+
+            double sum = 0;
+            for(int r = 0; r < reps; r++) {
+                TorsionMatrix.eval_cumuTorsionMatrix(parent, 0, t.get_matrices(), t.get_offset(4 + r%(t.get_levels()-3), (r & 1) != 0), out, 0);
+                sum += out[TorsionMatrix.Z];
+            }
+            return sum;
+        });
+    }
+
+    //prune_node and calculate_DME for the atom at the deepest level of a
+    //path, restrained to a varying number of its ancestors
+    private void bench_prune(DistanceData d) {
+
+        final int depth = 129;
+
+        for(int restraints : new int[]{4, 16, 64, 126}) {
+
+            //a straight path down the tree, with each atom placed along a helix
+            final NodeArena arena = new NodeArena(depth);
+            int n = -1;
+            for(int l = 1; l <= depth; l++) {
+                n = arena.add_node(n);
+                arena.set_xyz(n, 2.3*Math.cos(l*1.75), 2.3*Math.sin(l*1.75), 1.5*l);
+            }
+            final int leaf = n;
+
+            //restraints from the deepest atom to its closest ancestors, each
+            //target offset slightly so every restraint contributes
+            int[] atom1 = new int[restraints], atom2 = new int[restraints];
+            float[] target = new float[restraints];
+            for(int k = 0; k < restraints; k++) {
+                atom1[k] = depth-2-k;
+                atom2[k] = depth-1;
+                target[k] = 0.01f + 1.5f*(k+1);
+            }
+
+            RestraintIndex index = new RestraintIndex(depth, atom1, atom2, target, restraints);
+            final PruneTree prune = new PruneTree(arena, index, Double.MAX_VALUE);
+
+            this.measure("prune", "restraints=" + restraints, reps -> {
+
+                double sum = 0;
+                for(int r = 0; r < reps; r++) {
+                    prune.prune_node(leaf, depth);
+                    sum += prune.calculate_DME(leaf, depth);
+                }
+                return sum;
+            });
+        }
+    }
+
+    //find_pairs over copies of the 2ncs atoms, tiled along x so that the
+    //density of atoms stays the same as the atom count grows
+    private void bench_pairwise(final DistanceData d) {
+
+        ArrayList<Atom> atoms = d.get_all_atoms();
+
+        for(int copies : new int[]{1, 4, 16}) {
+
+            final ArrayList<Atom> tiled = new ArrayList<>();
+            for(int c = 0; c < copies; c++)
+                for(Atom a : atoms)
+                    tiled.add(new Atom(a.get_name(), tiled.size()+1, a.get_xCoord() + 40*c, a.get_yCoord(), a.get_zCoord()));
+
+            this.measure("pairwise", "atoms=" + tiled.size(), reps -> {
+
+                double sum = 0;
+                for(int r = 0; r < reps; r++)
+                    sum += d.find_pairs(tiled).get_size();
+                return sum;
+            });
+        }
+    }
+
+    //the full level by level construction of the backbone down to the given
+    //number of atoms, pruned against the backbone distances, with its nodes
+    //kept in the given kind of arena
+    private void bench_backbone(final DistanceData d) {
+
+        final ArrayList<Distance> cov = d.get_covalentPBB();
+        final RestraintIndex restraints = d.get_pairwisePBB_pairs().to_restraintIndex(d.get_onlyPBB().size());
+        final ProteinDetermination pd = new ProteinDetermination();
+        pd.torsions = new TorsionTable(d.get_pairwisePBB_pairs(), d.get_onlyPBB().size());
+
+        for(final int atoms : new int[]{10, 17, 25})
+            this.bench_backbone(pd, cov, restraints, atoms, "heap");
+
+        this.bench_backbone(pd, cov, restraints, 25, "direct");
+    }
+
+    private void bench_backbone(final ProteinDetermination pd, final ArrayList<Distance> cov, final RestraintIndex restraints, final int atoms, String arena) {
+
+        pd.arenaKind = arena;
+
+        this.measure("backbone", "atoms=" + atoms + (arena.equals("heap") ? "" : ",arena=" + arena), reps -> {
+
+            double sum = 0;
+            for(int r = 0; r < reps; r++) {
+                ProteinTree pt = pd.create_tree(cov);
+                sum += pd.solve_levels(pt, new int[]{pt.get_node3()}, 3, atoms, cov, restraints).length;
+            }
+            return sum;
+        });
+    }
+
+    //warms an operation up, then times it over several iterations and
+    //records the mean time and allocation per operation
+    private void measure(String benchmark, String param, Operation op) {
+
+        //finds a repetition count that takes roughly one iteration
+        int reps = 1;
+        long start = System.nanoTime();
+        while(System.nanoTime() - start < WARMUP_NANOS) {
+            long t = System.nanoTime();
+            sink += op.run(reps);
+            if(System.nanoTime() - t < ITERATION_NANOS/10)
+                reps = Math.min(2*reps, 1 << 30);
+        }
+
+        double[] nanosPerOp = new double[ITERATIONS];
+        long allocated = 0;
+        long ops = 0;
+
+        for(int i = 0; i < ITERATIONS; i++) {
+
+            long bytes = this.allocated_bytes();
+            long t = System.nanoTime();
+            sink += op.run(reps);
+            nanosPerOp[i] = (System.nanoTime() - t)/(double)reps;
+            allocated += this.allocated_bytes() - bytes;
+            ops += reps;
+        }
+
+        double mean = 0;
+        for(double v : nanosPerOp)
+            mean += v/ITERATIONS;
+
+        double error = 0;
+        for(double v : nanosPerOp)
+            error += (v - mean)*(v - mean)/(ITERATIONS-1);
+        error = Math.sqrt(error);
+
+        double bytesPerOp = this.threads == null ? Double.NaN : allocated/(double)ops;
+
+        System.out.println(String.format("%-10s %-38s %14.1f ns/op  +- %10.1f  %12.1f B/op", benchmark, param, mean, error, bytesPerOp));
+
+        this.results.add(String.format(Locale.ROOT,
+            "  {\"benchmark\": \"%s\", \"param\": \"%s\", \"nsPerOp\": %.3f, \"nsPerOpError\": %.3f, \"opsPerSecond\": %.1f, \"bytesPerOp\": %s}",
+            benchmark, param, mean, error, 1e9/mean, Double.isNaN(bytesPerOp) ? "null" : String.format(Locale.ROOT, "%.1f", bytesPerOp)));
+    }
+
+    //bytes allocated so far by the current thread
+    private long allocated_bytes()
+        {return this.threads == null ? 0 : this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());}
+
+    //writes every result as a JSON array
+    private void write_json(String path) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(path, "UTF-8")) {
+
+            writer.println("[");
+            for(int i = 0; i < this.results.size(); i++)
+                writer.println(this.results.get(i) + (i+1 < this.results.size() ? "," : ""));
+            writer.println("]");
+        }
+
+        System.out.println("results written to " + path);
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * The purpose of this class is to save the state of a search to a file as it
+ * runs, so that a later run can resume from it rather than starting over. The
+ * level by level search appends the nodes that survive each level once it is
+ * finished, and the depth first search appends every solution it finds and
+ * periodically saves its stack. A hybrid search does both, and also appends
+ * the position within its frontier of each node it begins to search depth
+ * first from. Each node is stored as its parent, coordinates, error and
+ * cumulative torsion matrix.
+ *
+ * The file begins with a header describing the search, and is only resumed
+ * from if the header matches the search being run. Two slots for the stack
+ * follow the header, each large enough for the deepest stack. A stack
+ * supersedes every earlier one, so it overwrites the older slot rather than
+ * being appended, and the file only grows with the levels and solutions.
+ * Each slot holds a sequence number and a checksum, so a stack that was cut
+ * short, for example by the JVM dying while it was written, is ignored in
+ * favour of the other slot. The rest of the file is appended to, and a
+ * record that was cut short is ignored and overwritten when the search
+ * resumes. The file is read as a stream, and the solutions it holds are
+ * passed on again one at a time, so resuming takes no more memory than the
+ * search itself.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class Checkpoint {
+
+    //identifies a checkpoint file, and the version of its layout
+    private static final int MAGIC = 0x50444350, VERSION = 2;
+
+    //bytes of the header: magic, version, last level, mode, symmetric flag
+    //and fingerprint
+    private static final int HEADER = 4 + 4 + 4 + 1 + 1 + 8;
+
+    //bytes before the stack of a slot: sequence number, length and checksum
+    private static final int SLOT_HEADER = 8 + 4 + 4;
+
+    //tags of the records appended after the slots
+    private static final byte LEVEL = 'L', SOLUTION = 'R', ROOT = 'F';
+
+    //kinds of search a checkpoint can be written by
+    public static final int LEVELS = 0, DEPTH_FIRST = 1, HYBRID = 2;
+
+    //doubles stored for each node: x,y,z, error and the torsion matrix
+    private static final int NODE_DOUBLES = 4 + NodeArena.TRANSFORM_SIZE;
+
+    //file the checkpoint is written to. records are appended through out,
+    //and stacks are written to the slots through slots.
+    private String path;
+    private FileOutputStream log;
+    private DataOutputStream out;
+    private FileChannel slots;
+
+    //bytes of each slot, and the position the appended records begin at
+    private int slotSize;
+    private long logStart;
+
+    //the stack being written, and the sequence number of the next one
+    private ByteBuffer slot;
+    private long sequence;
+
+    //least time, in milliseconds, between two stacks being written
+    private long interval;
+    private long lastWrite;
+
+    //the records read when resuming. each level holds the parent (the
+    //position within the previous level) and the doubles of every node
+    private ArrayList<Integer> levels;
+    private ArrayList<int[]> levelParents;
+    private ArrayList<double[]> levelNodes;
+
+    //the stack resumed from, following its slot header, or null
+    private ByteBuffer stack;
+
+    //position within the frontier of the node a hybrid search was searching
+    //depth first from, -1 if it hadn't begun to
+    private int root;
+
+    //position up to which the solutions read are passed on again
+    private long replayEnd;
+
+    //ids of the nodes of the deepest level restored
+    private int[] frontier;
+
+    //set if the file held a state to resume from
+    private boolean resumed;
+
+    //constructor
+    public Checkpoint(String p, long millis) {
+
+        this.path = p;
+        this.interval = millis;
+        this.levels = new ArrayList<>();
+        this.levelParents = new ArrayList<>();
+        this.levelNodes = new ArrayList<>();
+        this.root = -1;
+    }
+
+    //opens the checkpoint file for the search described, whose kind is one
+    //of LEVELS, DEPTH_FIRST or HYBRID. if the file holds
+    //a checkpoint of the same search its records are read, and anything
+    //after the last complete record is discarded, otherwise the file is
+    //started over. returns true if there is a state to resume from.
+    public boolean open(int lastLevel, int mode, boolean symmetric, long fingerprint) throws IOException {
+
+        File f = new File(this.path);
+
+        //a stack holds the cursor and both children of every level
+        this.slotSize = SLOT_HEADER + 8 + 8 + 4 + 4 + (lastLevel+1)*(4 + 2*(1 + 8*NODE_DOUBLES));
+        this.logStart = HEADER + 2L*this.slotSize;
+        this.slot = ByteBuffer.allocate(this.slotSize);
+
+        long good = 0;
+
+        if(f.exists() && f.length() >= this.logStart) {
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+
+                if(in.readInt() == MAGIC && in.readInt() == VERSION && in.readInt() == lastLevel &&
+                   in.readByte() == mode && in.readByte() == (symmetric ? 1 : 0) && in.readLong() == fingerprint)
+                    good = this.read_file(f, in);
+            }
+            catch(EOFException e)
+                {good = 0;}
+        }
+
+        if(good == 0) {
+
+            this.levels.clear();
+            this.levelParents.clear();
+            this.levelNodes.clear();
+            this.stack = null;
+            this.root = -1;
+            this.sequence = 1;
+
+            //the header, followed by two empty slots
+            try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, false), 1 << 16))) {
+
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(lastLevel);
+                header.writeByte(mode);
+                header.writeByte(symmetric ? 1 : 0);
+                header.writeLong(fingerprint);
+                header.write(new byte[2*this.slotSize]);
+            }
+
+            good = this.logStart;
+        }
+
+        this.slots = new RandomAccessFile(f, "rw").getChannel();
+
+        //the partial record, if any, is cut off before appending
+        this.slots.truncate(good);
+        this.replayEnd = good;
+
+        this.log = new FileOutputStream(f, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.log, 1 << 16));
+        this.lastWrite = System.currentTimeMillis();
+
+        this.resumed = !this.levels.isEmpty() || this.stack != null || this.root >= 0;
+        return this.resumed;
+    }
+
+    //getter for whether there is a state to resume from
+    public boolean is_resumed()
+        {return this.resumed;}
+
+    //reads the slots and every complete record that follows them, returning
+    //the position after the last one that should be kept. solutions are only
+    //kept up to the last stack, since the ones after it will be found again,
+    //and a stack is only resumed from if it was written after the last level
+    //and root.
+    private long read_file(File f, DataInputStream in) throws IOException {
+
+        ByteBuffer[] read = new ByteBuffer[2];
+        long[] sequences = new long[2];
+        long[] ends = new long[2];
+
+        for(int s = 0; s < 2; s++) {
+
+            byte[] bytes = new byte[this.slotSize];
+            in.readFully(bytes);
+
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            sequences[s] = buf.getLong();
+            int length = buf.getInt();
+            int crc = buf.getInt();
+
+            if(sequences[s] <= 0 || length < 16 || length > this.slotSize - SLOT_HEADER)
+                continue;
+
+            CRC32 check = new CRC32();
+            check.update(bytes, SLOT_HEADER, length);
+
+            if((int)check.getValue() != crc)
+                continue;
+
+            read[s] = ByteBuffer.wrap(bytes, SLOT_HEADER, length).slice();
+            ends[s] = read[s].getLong(8);
+        }
+
+        //the end of the last complete record, and of the last level or root
+        long position = this.logStart, marker = this.logStart;
+        long remaining = f.length() - this.logStart;
+
+        while(true) {
+
+            try {
+
+                byte tag = in.readByte();
+
+                if(tag == LEVEL) {
+
+                    int level = in.readInt();
+                    int count = in.readInt();
+
+                    if(count < 0 || 9 + (long)count*(4 + 8*NODE_DOUBLES) > remaining - (position - this.logStart))
+                        break;
+
+                    int[] parents = new int[count];
+                    double[] nodes = new double[count*NODE_DOUBLES];
+
+                    for(int i = 0; i < count; i++) {
+                        parents[i] = in.readInt();
+                        for(int k = 0; k < NODE_DOUBLES; k++)
+                            nodes[i*NODE_DOUBLES + k] = in.readDouble();
+                    }
+
+                    this.levels.add(level);
+                    this.levelParents.add(parents);
+                    this.levelNodes.add(nodes);
+                    position += 9 + (long)count*(4 + 8*NODE_DOUBLES);
+                    marker = position;
+                }
+                else
+                if(tag == ROOT) {
+
+                    this.root = in.readInt();
+                    position += 5;
+                    marker = position;
+                }
+                else
+                if(tag == SOLUTION) {
+
+                    in.readDouble();
+                    int atoms = in.readInt();
+
+                    if(atoms < 0)
+                        break;
+
+                    skip_fully(in, 24L*atoms);
+                    position += 13 + 24L*atoms;
+                }
+                else
+                    break;
+            }
+            catch(EOFException e)
+                {break;}
+        }
+
+        //the latest stack that follows the last level or root, and doesn't
+        //lie beyond the complete records
+        int best = -1;
+        for(int s = 0; s < 2; s++)
+            if(read[s] != null && ends[s] >= marker && ends[s] <= position && (best < 0 || sequences[s] > sequences[best]))
+                best = s;
+
+        this.sequence = Math.max(sequences[0], sequences[1]) + 1;
+        this.stack = best < 0 ? null : read[best];
+
+        //a slot that isn't resumed from is emptied, so it can't be mistaken
+        //for a later stack once records are appended again
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            for(int s = 0; s < 2; s++)
+                if(s != best) {
+                    raf.seek(HEADER + (long)s*this.slotSize);
+                    raf.write(new byte[SLOT_HEADER]);
+                }
+        }
+
+        return best < 0 ? marker : ends[best];
+    }
+
+    //rebuilds the nodes of every level read below the third node of the
+    //tree, labelling each level's atom. the ids of the deepest level are kept
+    //as the frontier. returns the deepest level restored.
+    public int restore_levels(ProteinTree pt, ProteinDetermination pd, ArrayList<Distance> covDistances) {
+
+        NodeArena arena = pt.get_arena();
+        int[] previous = new int[]{pt.get_node3()};
+        int deepest = 3;
+
+        for(int r = 0; r < this.levels.size(); r++) {
+
+            int[] parents = this.levelParents.get(r);
+            double[] nodes = this.levelNodes.get(r);
+            int[] ids = new int[parents.length];
+
+            deepest = this.levels.get(r);
+            pd.label_level(arena, deepest, covDistances);
+
+            for(int i = 0; i < parents.length; i++)
+                ids[i] = read_node(arena, previous[parents[i]], nodes, i*NODE_DOUBLES);
+
+            previous = ids;
+        }
+
+        this.frontier = previous;
+
+        return deepest;
+    }
+
+    //returns true if a stack was read
+    public boolean has_stack()
+        {return this.stack != null;}
+
+    //rebuilds the children of every level of the stack that was read, below
+    //the root, which must be the last node of the arena. the cursor of each
+    //level is restored, and the level the search had reached is returned.
+    public int restore_stack(NodeArena arena, int root, int rootLevel, int[] cursor) {
+
+        ByteBuffer buf = this.stack.duplicate();
+
+        buf.getLong();
+        buf.getLong();
+        buf.getInt();
+        int level = buf.getInt();
+        int base = root+1;
+        double[] node = new double[NODE_DOUBLES];
+
+        arena.truncate(base);
+
+        for(int l = rootLevel+1; l <= level; l++) {
+
+            cursor[l] = buf.getInt();
+
+            //the node being explored at the level above is the one its
+            //cursor has just passed
+            int parent = l == rootLevel+1 ? root : base + 2*(l-rootLevel-2) + cursor[l-1]-1;
+
+            for(int c = 0; c < 2; c++) {
+
+                boolean stop = buf.get() == 1;
+                for(int k = 0; k < NODE_DOUBLES; k++)
+                    node[k] = buf.getDouble();
+
+                int n = read_node(arena, parent, node, 0);
+                arena.set_stop(n, stop);
+            }
+        }
+
+        return level;
+    }
+
+    //getter for the position within the frontier of the node a hybrid
+    //search was searching depth first from, -1 if it hadn't begun to
+    public int get_root()
+        {return this.root;}
+
+    //getter for the number of solutions found when the stack was written
+    public long get_found()
+        {return this.stack == null ? 0 : this.stack.getLong(0);}
+
+    //passes every solution that was read to the consumer, labelling their
+    //atoms from the levels of the arena. the solutions are read from the
+    //file one at a time.
+    public void replay_solutions(NodeArena arena, SolutionConsumer consumer) {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.path), 1 << 16))) {
+
+            skip_fully(in, this.logStart);
+
+            for(long position = this.logStart; position < this.replayEnd; ) {
+
+                byte tag = in.readByte();
+
+                if(tag == LEVEL) {
+
+                    in.readInt();
+                    int count = in.readInt();
+                    skip_fully(in, (long)count*(4 + 8*NODE_DOUBLES));
+                    position += 9 + (long)count*(4 + 8*NODE_DOUBLES);
+                    continue;
+                }
+
+                if(tag == ROOT) {
+
+                    in.readInt();
+                    position += 5;
+                    continue;
+                }
+
+                double dme = in.readDouble();
+                int level = in.readInt();
+                Node[] sol = new Node[level];
+
+                for(int k = 0; k < level; k++) {
+
+                    Atom a = new Atom(arena.get_levelName(level-k), arena.get_levelIndex(level-k), in.readDouble(), in.readDouble(), in.readDouble());
+                    sol[k] = new Node(level-k, a, null, false, false);
+
+                    if(k > 0)
+                        sol[k-1].set_parent(sol[k]);
+                }
+
+                consumer.accept(sol, dme);
+                position += 13 + 24L*level;
+            }
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't replay checkpoint: " + e.getMessage());
+        }
+    }
+
+    //getter for the ids of the deepest level restored
+    public int[] get_frontier()
+        {return this.frontier;}
+
+    //appends the nodes of a finished level. each node's parent is stored as
+    //its position within the previous level, whose nodes are given in order.
+    public void write_level(NodeArena arena, int[] previous, int[] nodes, int level) {
+
+        if(this.out == null)
+            return;
+
+        try {
+
+            this.out.writeByte(LEVEL);
+            this.out.writeInt(level);
+            this.out.writeInt(nodes.length);
+
+            //parents appear in the same order as the previous level
+            int p = 0;
+            for(int n : nodes) {
+
+                while(previous[p] != arena.get_parent(n))
+                    p++;
+
+                this.out.writeInt(p);
+                this.write_node(arena, n);
+            }
+
+            this.out.flush();
+        }
+        catch(IOException e)
+            {this.fail(e);}
+    }
+
+    //appends the position within the frontier of the node a hybrid search
+    //begins to search depth first from. the state read when resuming is
+    //finished with once the search moves on to a node.
+    public void begin_root(int index) {
+
+        this.root = index;
+        this.stack = null;
+        this.replayEnd = this.logStart;
+
+        if(this.out == null)
+            return;
+
+        try {
+            this.out.writeByte(ROOT);
+            this.out.writeInt(index);
+            this.out.flush();
+        }
+        catch(IOException e)
+            {this.fail(e);}
+    }
+
+    //returns true once enough time has passed for the stack to be written
+    public boolean due()
+        {return this.out != null && System.currentTimeMillis() - this.lastWrite >= this.interval;}
+
+    //writes the stack of the depth first search over the older slot: the
+    //number of solutions found, the end of the solutions appended so far,
+    //and the cursor and both children of every level below the root
+    public void write_stack(NodeArena arena, int root, int rootLevel, int level, int[] cursor, long found) {
+
+        if(this.out == null)
+            return;
+
+        try {
+
+            //the solutions the stack accounts for are written first
+            this.out.flush();
+
+            ByteBuffer buf = this.slot;
+            buf.clear();
+            buf.position(SLOT_HEADER);
+
+            buf.putLong(found);
+            buf.putLong(this.log.getChannel().size());
+            buf.putInt(rootLevel);
+            buf.putInt(level);
+
+            for(int l = rootLevel+1; l <= level; l++) {
+
+                int first = root+1 + 2*(l-rootLevel-1);
+                buf.putInt(cursor[l]);
+
+                for(int c = first; c < first+2; c++) {
+                    buf.put((byte)(arena.get_stop(c) ? 1 : 0));
+                    put_node(buf, arena, c);
+                }
+            }
+
+            int length = buf.position() - SLOT_HEADER;
+            CRC32 check = new CRC32();
+            check.update(buf.array(), SLOT_HEADER, length);
+
+            buf.putLong(0, this.sequence);
+            buf.putInt(8, length);
+            buf.putInt(12, (int)check.getValue());
+            buf.flip();
+
+            long offset = HEADER + (this.sequence & 1)*this.slotSize;
+            while(buf.hasRemaining())
+                offset += this.slots.write(buf, offset);
+
+            this.sequence++;
+            this.lastWrite = System.currentTimeMillis();
+        }
+        catch(IOException e)
+            {this.fail(e);}
+    }
+
+    //appends a solution found by the depth first search. it is flushed along
+    //with the next stack.
+    public void write_solution(Node[] sol, double dme) {
+
+        if(this.out == null)
+            return;
+
+        try {
+
+            this.out.writeByte(SOLUTION);
+            this.out.writeDouble(dme);
+            this.out.writeInt(sol.length);
+
+            for(Node n : sol) {
+                this.out.writeDouble(n.get_atom().get_xCoord());
+                this.out.writeDouble(n.get_atom().get_yCoord());
+                this.out.writeDouble(n.get_atom().get_zCoord());
+            }
+        }
+        catch(IOException e)
+            {this.fail(e);}
+    }
+
+    //closes the file
+    public void close() {
+
+        try {
+            if(this.out != null)
+                this.out.close();
+            if(this.slots != null)
+                this.slots.close();
+        }
+        catch(IOException e)
+            {this.fail(e);}
+    }
+
+    //writes the coordinates, error and torsion matrix of a node
+    private void write_node(NodeArena arena, int n) throws IOException {
+
+        this.out.writeDouble(arena.get_x(n));
+        this.out.writeDouble(arena.get_y(n));
+        this.out.writeDouble(arena.get_z(n));
+        this.out.writeDouble(arena.get_error(n));
+
+        for(int k = 0; k < NodeArena.TRANSFORM_SIZE; k++)
+            this.out.writeDouble(arena.get_transform(n, k));
+    }
+
+    //puts the coordinates, error and torsion matrix of a node in a buffer
+    private static void put_node(ByteBuffer buf, NodeArena arena, int n) {
+
+        buf.putDouble(arena.get_x(n));
+        buf.putDouble(arena.get_y(n));
+        buf.putDouble(arena.get_z(n));
+        buf.putDouble(arena.get_error(n));
+
+        for(int k = 0; k < NodeArena.TRANSFORM_SIZE; k++)
+            buf.putDouble(arena.get_transform(n, k));
+    }
+
+    //adds a node to the arena from the doubles stored for it, returning its id
+    private static int read_node(NodeArena arena, int parent, double[] data, int off) {
+
+        int n = arena.add_node(parent);
+
+        arena.set_xyz(n, data[off], data[off+1], data[off+2]);
+        arena.set_error(n, data[off+3]);
+
+        for(int k = 0; k < NodeArena.TRANSFORM_SIZE; k++)
+            arena.set_transform(n, k, data[off+4+k]);
+
+        return n;
+    }
+
+    //skips the given number of bytes of a stream, failing at its end. the
+    //bytes are read rather than skipped, since skipping a file can pass its
+    //end without failing.
+    private static void skip_fully(DataInputStream in, long bytes) throws IOException {
+
+        byte[] scratch = new byte[(int)Math.min(bytes, 1 << 13)];
+
+        while(bytes > 0) {
+
+            int n = (int)Math.min(bytes, scratch.length);
+            in.readFully(scratch, 0, n);
+            bytes -= n;
+        }
+    }
+
+    //stops writing after the first error, rather than failing the search
+    private void fail(IOException e) {
+
+        System.out.println("Couldn't write checkpoint: " + e.getMessage());
+        this.out = null;
+    }
+
+    //a value that changes with the restraints and the bonds, so that a
+    //checkpoint isn't resumed by a search over different data
+    public static long fingerprint(RestraintIndex nmr, ArrayList<Distance> covDistances, double epsilon, boolean interval) {
+
+        long h = Double.doubleToLongBits(epsilon)*31 + (interval ? 1 : 0);
+
+        for(int e = 0; e < nmr.get_entries(); e++) {
+            h = 31*h + nmr.get_partner(e);
+            h = 31*h + Float.floatToIntBits(nmr.get_target(e));
+            h = 31*h + Float.floatToIntBits(nmr.get_lower(e));
+            h = 31*h + Float.floatToIntBits(nmr.get_upper(e));
+        }
+
+        for(Distance d : covDistances)
+            h = 31*h + Float.floatToIntBits(d.get_distance());
+
+        return h;
+    }
+}
@@ -23,9 +23,9 @@ public class Clique {
         this.d3 = new Distance(this.d1.get_atom1(), this.d2.get_atom2());
         
         if(i==1) 
-            this.theta = this.calculate_theta(this.d1.get_distance(), this.d2.get_distance(), this.d3.get_distance());
+            this.theta = calculate_theta(this.d1.get_distance(), this.d2.get_distance(), this.d3.get_distance());
         if(i==2) 
-            this.theta = this.calculate_theta(this.d1.get_distance(), this.d3.get_distance(), this.d2.get_distance());
+            this.theta = calculate_theta(this.d1.get_distance(), this.d3.get_distance(), this.d2.get_distance());
     }
     
     //getter for theta
@@ -49,7 +49,7 @@ public class Clique {
     //atom1&atom2, and atom2 & atom3. 
     //d12 -> distance between atom1 to atom2; d2 -> distance between 
     //atom2 and atom3; d13 -> distance between atom1 and atom3
-    private double calculate_theta(double d12, double d23, double d13) {
+    public static double calculate_theta(double d12, double d23, double d13) {
         
         //law of cosines
         double cos_theta = (Math.pow(d12,2) + Math.pow(d23,2) - Math.pow(d13,2))  
@@ -0,0 +1,149 @@
+/*
+ * The purpose of this class is to search the protein tree depth first rather
+ * than level by level. Only the current path from the root, along with both
+ * children of each node on that path, is kept in the arena, which is used as
+ * a stack. Every complete solution is handed to a SolutionConsumer as soon as
+ * it is found, so memory grows with the length of the chain rather than with
+ * the size of the tree. Solutions are found in the same left to right order
+ * as the level by level search. If given a checkpoint, the stack is saved to
+ * it periodically along with each solution found, and a stack that was read
+ * from it is resumed rather than starting from the root. A search can be
+ * given a deadline, or be stopped, after which it returns the solutions found
+ * so far.
+ */
+
+import java.util.*;
+
+public class DepthFirstSearch {
+
+    //expands each node of the path
+    private ProteinDetermination pd;
+
+    //time (from System.nanoTime) after which the search stops, and whether
+    //it has been stopped
+    private long deadline;
+    private volatile boolean stopped;
+
+    //constructor
+    public DepthFirstSearch(ProteinDetermination p) {
+
+        this.pd = p;
+        this.deadline = Long.MAX_VALUE;
+        this.stopped = false;
+    }
+
+    //setter for the deadline
+    public void set_deadline(long nanoTime)
+        {this.deadline = nanoTime;}
+
+    //stops the search, which returns once it has finished its current node
+    public void stop()
+        {this.stopped = true;}
+
+    //getter for whether the search was stopped before it finished
+    public boolean was_stopped()
+        {return this.stopped;}
+
+    //searches the subtree below root, which sits at rootLevel and is the
+    //last node of the tree's arena, down to the last level, passing every
+    //solution found to the consumer. returns the number of solutions found.
+    public long search(ProteinTree pt, int root, int rootLevel, int lastLevel, ArrayList<Distance> covDistances, RestraintIndex nmr, SolutionConsumer consumer)
+        {return this.search(pt, root, rootLevel, lastLevel, covDistances, nmr, consumer, null);}
+    
+    //searches as above, saving the stack to the checkpoint, if it isn't null,
+    //and resuming from the stack read from it, if there is one.
+    public long search(ProteinTree pt, int root, int rootLevel, int lastLevel, ArrayList<Distance> covDistances, RestraintIndex nmr, SolutionConsumer consumer, Checkpoint cp) {
+
+        NodeArena arena = pt.get_arena();
+        PruneTree prune = this.pd.create_prune(arena, nmr);
+
+        if(rootLevel == lastLevel) {
+            consumer.accept(arena.extract_solution(root, lastLevel), prune.calculate_DME(root, lastLevel));
+            return 1;
+        }
+
+        for(int level = rootLevel+1; level <= lastLevel; level++)
+            this.pd.label_level(arena, level, covDistances);
+
+        //the children of the path node at level l-1 are stored at
+        //base+2*(l-rootLevel-1) (left) and the id after it (right).
+        int base = root+1;
+
+        //which child of each level is to be visited next, 0 for the left, 1
+        //for the right and 2 once both have been visited
+        int[] cursor = new int[lastLevel+1];
+
+        long found = 0;
+        int level;
+
+        if(cp != null && cp.has_stack()) {
+
+            //the solutions found before the stack was saved are passed on
+            //again, and the search carries on from where it was
+            level = cp.restore_stack(arena, root, rootLevel, cursor);
+            found = cp.get_found();
+            cp.replay_solutions(arena, consumer);
+        }
+        else {
+
+            arena.truncate(base);
+            this.pd.expand_node(pt, prune, root, rootLevel);
+
+            level = rootLevel+1;
+            cursor[level] = 0;
+        }
+
+        long steps = 0;
+
+        while(level > rootLevel) {
+
+            //the clock is only read every so often
+            if((++steps & 1023) == 0 && System.nanoTime() > this.deadline)
+                this.stopped = true;
+
+            if(this.stopped)
+                break;
+
+            if(cp != null && cp.due())
+                cp.write_stack(arena, root, rootLevel, level, cursor, found);
+
+            //both children have been visited, so return to the parent's level
+            if(cursor[level] == 2) {
+                level--;
+                continue;
+            }
+
+            int first = base + 2*(level-rootLevel-1);
+            int child = first + cursor[level]++;
+
+            if(arena.get_stop(child))
+                continue;
+
+            if(level == lastLevel) {
+
+                Node[] sol = arena.extract_solution(child, lastLevel);
+                consumer.accept(sol, prune.calculate_DME(child, lastLevel));
+                found++;
+
+                if(cp != null)
+                    cp.write_solution(sol, prune.calculate_DME(child, lastLevel));
+                continue;
+            }
+
+            //discards everything below the current level before the
+            //children of this node are created
+            arena.truncate(first+2);
+            this.pd.expand_node(pt, prune, child, level);
+
+            level++;
+            cursor[level] = 0;
+        }
+
+        //the finished search is saved, so resuming it only replays solutions,
+        //while a stopped one is saved where it stopped
+        if(cp != null)
+            cp.write_stack(arena, root, rootLevel, this.stopped ? level : rootLevel, cursor, found);
+
+        return found;
+    }
+}
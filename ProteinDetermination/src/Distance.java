@@ -8,6 +8,10 @@ public class Distance {
     //distance between the two atoms
     private float distance;
     
+    //lower and upper bounds of the distance, both equal to the distance 
+    //unless they are widened
+    private float lower, upper;
+    
     //the two atoms that are used to define the distance
     private Atom atom1, atom2;
     
@@ -24,12 +28,20 @@ public class Distance {
     //Distance = sqrt[(x1-x2)^2+(y1-y2)^2+(z1-z2)^2].
     private void calc_distance() {
         
-        float x = (float)Math.pow((this.atom1.get_xCoord() - this.atom2.get_xCoord()),2);
-        float y = (float)Math.pow((this.atom1.get_yCoord() - this.atom2.get_yCoord()),2);
-        float z = (float)Math.pow((this.atom1.get_zCoord() - this.atom2.get_zCoord()),2);
+        this.distance = calc_distance(this.atom1.get_xCoord(), this.atom1.get_yCoord(), this.atom1.get_zCoord(),
+                                      this.atom2.get_xCoord(), this.atom2.get_yCoord(), this.atom2.get_zCoord());
+        this.lower = this.upper = this.distance;
+    }
+    
+    //computes the distance between two points without creating any atoms
+    public static float calc_distance(double x1, double y1, double z1, double x2, double y2, double z2) {
+        
+        float x = (float)Math.pow((x1 - x2),2);
+        float y = (float)Math.pow((y1 - y2),2);
+        float z = (float)Math.pow((z1 - z2),2);
     
         //Pythagorean Theorem in R^3
-        this.distance = (float)Math.sqrt(x+y+z);
+        return (float)Math.sqrt(x+y+z);
     }
     
     //getter for atom1
@@ -43,4 +55,16 @@ public class Distance {
     //getter for distance
     public float get_distance()
         {return this.distance;}
+    
+    //setter for lower and upper bounds
+    public void set_bounds(float lo, float hi)
+        {this.lower = lo; this.upper = hi;}
+    
+    //getter for lower bound
+    public float get_lower()
+        {return this.lower;}
+    
+    //getter for upper bound
+    public float get_upper()
+        {return this.upper;}
 }
\ No newline at end of file
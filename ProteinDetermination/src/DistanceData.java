@@ -6,78 +6,95 @@
 
 
 import java.util.*;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.FileReader;
+import java.io.UncheckedIOException;
 import java.io.File;
 
 public class DistanceData {
 
     //stores all atoms from the PDB file
     private ArrayList<Atom> atomsFromFile, onlyBackbone;
+    
+    //reads PDB files, and every model of the last file read
+    private PdbReader reader;
+    private ArrayList<PdbModel> models;
+    
+    //model the atoms were taken from
+    private PdbModel model;
    
-    //stores the pairwise distances between all pairs of atoms
-    private ArrayList<Distance> pairwiseDistances, pairwisePBB;
+    //stores the pairs of atoms that are within the cutoff of each other, 
+    //for all atoms and for the protein backbone only
+    private PairBuffer pairwiseDistances, pairwisePBB;
+    
+    //largest distance, in Angstrom, between two atoms for their distance to
+    //be kept as simulated NMR data
+    private double cutoff;
     
-    //distances for covalent bonds within protein backbone
-    private ArrayList<Distance> covalentPBB;
+    //covalent bonds within protein backbone, between sequential backbone 
+    //atoms, and the distance objects viewing them once they've been asked for
+    private PairBuffer covalentPBB;
+    private ArrayList<Distance> covalentView;
 
     //initializes the ALs containing all atoms read from the file and 
     //their calculated pairwise distance data (simulated NMR).
     public DistanceData() {
 
         this.atomsFromFile = new ArrayList<>();
+        this.reader = new PdbReader();
+        this.models = new ArrayList<>();
         this.onlyBackbone = new ArrayList<>();
-        this.pairwisePBB = new ArrayList<>();
-        this.covalentPBB = new ArrayList<>();
-        this.pairwiseDistances = new ArrayList<>();
+        this.pairwisePBB = new PairBuffer(0);
+        this.covalentPBB = new PairBuffer(0);
+        this.covalentView = null;
+        this.pairwiseDistances = new PairBuffer(0);
+        this.cutoff = 5.000;
     }
 
-    //retrieves the information for each atom from the PDB file
-    public void read_atoms_from_file() {
+    //retrieves the information for each atom from the bundled PDB file
+    public void read_atoms_from_file()
+        {this.read_atoms_from_file(1);}
+    
+    //retrieves the information for each atom of the given model from the 
+    //bundled PDB file
+    public void read_atoms_from_file(int model) {
 
         //creates the path string of the PBD txt file
         String filePath = new File("").getAbsolutePath();
         System.out.println(filePath);
         filePath = filePath.concat("/src/2ncs.txt");
         
-        //opens the PDB file
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-
-            //used to extract each line (atom) from the PDB file
-            String CurrentLine;
-
-            //index assigned to each atom thats extracted from PDB file
-            int i = 1;
+        this.read_atoms_from_file(filePath, model);
+    }
+    
+    //retrieves the information for each atom of the given model from the PDB
+    //file at filePath. every model of the file is kept. a file without
+    //MODEL records holds model 1 only, and asking for a model the file 
+    //doesn't have is an error, as is a file that can't be read.
+    public void read_atoms_from_file(String filePath, int model) {
+        
+        try {
             
-            //reads the PDB file until the end is reached
-            while ((CurrentLine = br.readLine()) != null) {
-
-                //checks if the current line being read contains information
-                //regarding an atom within the protein
-                if (CurrentLine.startsWith("ATOM") /*|| CurrentLine.startsWith("HETATM")*/) {
-
-                    //x,y,z coords for atom
-                    float x, y, z;
-
-                    //x,y,z coordinates for atom are read from the 
-                    //appropriate columns
-                    x = Float.parseFloat(CurrentLine.substring(30, 38));
-                    y = Float.parseFloat(CurrentLine.substring(38, 46));
-                    z = Float.parseFloat(CurrentLine.substring(46, 54));
-
-                    //a new atom is now created from the recently
-                    //obtained information
-                    Atom a = new Atom(CurrentLine.substring(12, 16).trim(), i, x, y, z);
-                    i++;
-                    
-                    //newly created atom object is added to the AL of all 
-                    //atoms.
-                    this.atomsFromFile.add(a);
+            this.models = this.reader.read(filePath);
+            
+            if(this.models.isEmpty())
+                throw new IllegalArgumentException("no atoms in " + filePath);
+            
+            PdbModel m = null;
+            for(PdbModel mm : this.models)
+                if(mm.get_number() == model) {
+                    m = mm;
+                    break;
                 }
-            }
-        } catch (IOException e) 
-            {System.out.println("Couldn't load file.");}
+            
+            if(m == null)
+                throw new IllegalArgumentException("no model " + model + " in " + filePath);
+            
+            //atoms are numbered from 1 in the order they appear
+            this.model = m;
+            this.atomsFromFile = m.to_atoms();
+        } 
+        catch (IOException e) 
+            {throw new UncheckedIOException("couldn't load " + filePath, e);}
     }
     
     //strips the atom list down to only protein backbone atoms
@@ -92,43 +109,124 @@ public class DistanceData {
                     this.onlyBackbone.add(this.atomsFromFile.get(k));  
     }
     
-    //takes the atoms belonging to protein backbone and generates an AL
-    //that represents the covalent bond distances between each sequential atom.
+    //takes the atoms belonging to protein backbone and generates the pairs
+    //that represent the covalent bond distances between each sequential atom.
     public void generate_covalentPBB_distances(ArrayList<Atom> a) {
 
         for(int i = 0; i < a.size()-1; i++) {
             
-            Distance d = new Distance(a.get(i), a.get(i+1));
-            this.covalentPBB.add(d);
+            Atom a1 = a.get(i), a2 = a.get(i+1);
+            this.covalentPBB.add(i, i+1, Distance.calc_distance(a1.get_xCoord(), a1.get_yCoord(), a1.get_zCoord(), 
+                                                                a2.get_xCoord(), a2.get_yCoord(), a2.get_zCoord()));
          }  
+        
+        this.covalentPBB.trim();
+        this.covalentView = null;
     }
     
     //takes the atoms from the PDB file and calculates their pairwise distances
-    public ArrayList<Distance> calculate_pairwiseDistances(ArrayList<Atom> a){
-    
-        ArrayList<Distance> pw = new ArrayList<>();
-        
-        //beginning with the first atom, calculate the distance between the 
-        //current atom and all other atoms. as the index of the current atom
-        //increases, only atoms with higher index values will be used to 
-        //calculate distances.
-        for(Atom aa : a) {
-        
-            for(int i=a.indexOf(aa)+1; i < a.size(); i++) {
-                    
-                    //deep copy to a new object
-                    Atom a1 = new Atom(aa.get_name(), aa.get_index(), aa.get_xCoord(),aa.get_yCoord(),aa.get_zCoord());
-                    a1.set_index(aa.get_index());
-                    Atom a2 = new Atom(a.get(i).get_name(), a.get(i).get_index(), a.get(i).get_xCoord(),a.get(i).get_yCoord(),a.get(i).get_zCoord());
-                    a2.set_index(a.get(i).get_index());
-                    
-                    Distance d = new Distance(a1, a2);
-                    
-                    if(d.get_distance() <= 5.000) {
-                        pw.add(d);
+    public ArrayList<Distance> calculate_pairwiseDistances(ArrayList<Atom> a)
+        {return this.find_pairs(a).to_distances(a);}
+    
+    //finds every pair of atoms within the cutoff of each other using a cell 
+    //list: space is divided into a uniform grid of cells at least as wide as
+    //the cutoff, so each atom only needs to be compared with the atoms in its 
+    //own cell and the 26 surrounding cells. pairs are stored in the same 
+    //order as comparing every atom with every later atom would produce.
+    public PairBuffer find_pairs(ArrayList<Atom> a) {
+        
+        int n = a.size();
+        PairBuffer pw = new PairBuffer(8*n);
+        
+        if(n < 2)
+            return pw;
+        
+        //coordinates are copied out of the atoms once
+        double[] x = new double[n], y = new double[n], z = new double[n];
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        
+        for(int i = 0; i < n; i++) {
+            
+            x[i] = a.get(i).get_xCoord();
+            y[i] = a.get(i).get_yCoord();
+            z[i] = a.get(i).get_zCoord();
+            
+            minX = Math.min(minX, x[i]); maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]); maxY = Math.max(maxY, y[i]);
+            minZ = Math.min(minZ, z[i]); maxZ = Math.max(maxZ, z[i]);
+        }
+        
+        //cells are widened if the grid would have far more cells than atoms.
+        //the cells are counted in floating point, since a tiny cutoff would
+        //overflow an int along each axis.
+        double cellSize = Math.max(this.cutoff, 1e-6);
+        
+        while((Math.floor((maxX - minX)/cellSize) + 1)*(Math.floor((maxY - minY)/cellSize) + 1)*
+              (Math.floor((maxZ - minZ)/cellSize) + 1) > Math.max(27, 4.0*n))
+            cellSize *= 1.5;
+        
+        int nx = (int)((maxX - minX)/cellSize) + 1;
+        int ny = (int)((maxY - minY)/cellSize) + 1;
+        int nz = (int)((maxZ - minZ)/cellSize) + 1;
+        
+        //counting sort of the atoms into their cells
+        int[] cell = new int[n];
+        int[] cellStart = new int[nx*ny*nz+1];
+        
+        for(int i = 0; i < n; i++) {
+            
+            int cx = Math.min((int)((x[i] - minX)/cellSize), nx-1);
+            int cy = Math.min((int)((y[i] - minY)/cellSize), ny-1);
+            int cz = Math.min((int)((z[i] - minZ)/cellSize), nz-1);
+            
+            cell[i] = (cz*ny + cy)*nx + cx;
+            cellStart[cell[i]+1]++;
+        }
+        
+        for(int c = 0; c < nx*ny*nz; c++)
+            cellStart[c+1] += cellStart[c];
+        
+        int[] cellAtoms = new int[n];
+        int[] next = Arrays.copyOf(cellStart, nx*ny*nz);
+        
+        for(int i = 0; i < n; i++)
+            cellAtoms[next[cell[i]]++] = i;
+        
+        //later atoms found near the current atom
+        int[] near = new int[n];
+        
+        for(int i = 0; i < n; i++) {
+            
+            int cx = cell[i] % nx;
+            int cy = (cell[i] / nx) % ny;
+            int cz = cell[i] / (nx*ny);
+            int count = 0;
+            
+            for(int dz = Math.max(cz-1, 0); dz <= Math.min(cz+1, nz-1); dz++)
+                for(int dy = Math.max(cy-1, 0); dy <= Math.min(cy+1, ny-1); dy++)
+                    for(int dx = Math.max(cx-1, 0); dx <= Math.min(cx+1, nx-1); dx++) {
+                        
+                        int c = (dz*ny + dy)*nx + dx;
+                        
+                        for(int k = cellStart[c]; k < cellStart[c+1]; k++)
+                            if(cellAtoms[k] > i)
+                                near[count++] = cellAtoms[k];
                     }
+            
+            Arrays.sort(near, 0, count);
+            
+            for(int k = 0; k < count; k++) {
+                
+                int j = near[k];
+                float d = Distance.calc_distance(x[i], y[i], z[i], x[j], y[j], z[j]);
+                
+                if(d <= this.cutoff)
+                    pw.add(i, j, d);
             }
-        }    
+        }
+        
+        pw.trim();
         return pw;
     }
     
@@ -136,23 +234,90 @@ public class DistanceData {
     public ArrayList<Atom> get_onlyPBB() 
         {return this.onlyBackbone;}
     
-    //setter for covalent bond distances for protein backbone
-    public void set_covalentPBB(ArrayList<Distance> cv)
-        {this.covalentPBB = cv;}
+    //setter for covalent bond distances for protein backbone, which are 
+    //stored as pairs of backbone atoms
+    public void set_covalentPBB(ArrayList<Distance> cv) {
+        
+        HashMap<Integer, Integer> position = new HashMap<>();
+        for(int i = 0; i < this.onlyBackbone.size(); i++)
+            position.put(this.onlyBackbone.get(i).get_index(), i);
+        
+        this.covalentPBB = new PairBuffer(cv.size());
+        
+        for(Distance d : cv) {
+            
+            Integer p1 = position.get(d.get_atom1().get_index());
+            Integer p2 = position.get(d.get_atom2().get_index());
+            
+            if(p1 != null && p2 != null)
+                this.covalentPBB.add(p1, p2, d.get_distance(), d.get_lower(), d.get_upper());
+        }
+        
+        this.covalentPBB.sort(this.onlyBackbone.size());
+        this.covalentView = null;
+    }
+    
+    //getter for covalent bond distances for protein backbone, as distance
+    //objects viewing the stored pairs
+    public ArrayList<Distance> get_covalentPBB() {
+        
+        if(this.covalentView == null)
+            this.covalentView = this.covalentPBB.to_distances(this.onlyBackbone);
+        
+        return this.covalentView;
+    }
     
-    //getter for covalent bond distances for protein backbone
-    public ArrayList<Distance> get_covalentPBB()
+    //getter for covalent bonds of protein backbone as pairs
+    public PairBuffer get_covalentPBB_pairs()
         {return this.covalentPBB;}
     
     //getter for pairwise data generated from protein backbone only
     public ArrayList<Distance> get_pairwisePBB()
+        {return this.pairwisePBB.to_distances(this.onlyBackbone);}
+    
+    //getter for pairs generated from protein backbone only
+    public PairBuffer get_pairwisePBB_pairs()
         {return this.pairwisePBB;}
     
-    public void set_pairwisePBB(ArrayList<Distance> pwbb)
-        {this.pairwisePBB = pwbb;}
+    //setter for pairs generated from protein backbone only, which are kept
+    //sorted by atom
+    public void set_pairwisePBB(PairBuffer pwbb) {
+        
+        pwbb.sort(this.onlyBackbone.size());
+        this.pairwisePBB = pwbb;
+    }
+    
+    //setter for pairs generated from all atoms, which are kept sorted by atom
+    public void set_pairwise_distances(PairBuffer pw) {
+        
+        pw.sort(this.atomsFromFile.size());
+        this.pairwiseDistances = pw;
+    }
+    
+    //setter for the cutoff used to simulate NMR data, which must be positive
+    public void set_cutoff(double c) {
+        
+        if(!(c > 0))
+            throw new IllegalArgumentException("the cutoff must be positive, not " + c);
+        
+        this.cutoff = c;
+    }
+    
+    //getter for the cutoff used to simulate NMR data
+    public double get_cutoff()
+        {return this.cutoff;}
     
-    public void set_pairwise_distances(ArrayList<Distance> pw)
-        {this.pairwiseDistances = pw;}
+    //getter for every model of the PDB file
+    public ArrayList<PdbModel> get_models()
+        {return this.models;}
+    
+    //getter for the model the atoms were taken from
+    public PdbModel get_model()
+        {return this.model;}
+    
+    //getter for the PDB reader, which reports parse throughput
+    public PdbReader get_reader()
+        {return this.reader;}
     
     //getter for all atoms from PDB file
     public ArrayList<Atom> get_all_atoms()
@@ -160,8 +325,30 @@ public class DistanceData {
     
     //getter for all pair-wise distances
     public ArrayList<Distance> get_pairwise_distances()
+        {return this.pairwiseDistances.to_distances(this.atomsFromFile);}
+    
+    //getter for all pairs
+    public PairBuffer get_pairwise_pairs()
         {return this.pairwiseDistances;}
     
+    //prints to screen the memory taken by each set of pairs, against what 
+    //the same pairs took as distance objects with copied atoms
+    public void print_footprint() {
+        
+        System.out.println("RESTRAINT FOOTPRINT");
+        this.print_footprint("all atoms:     ", this.pairwiseDistances);
+        this.print_footprint("backbone:      ", this.pairwisePBB);
+        this.print_footprint("covalent:      ", this.covalentPBB);
+        System.out.println();
+    }
+    
+    //prints to screen the memory taken by a set of pairs
+    private void print_footprint(String label, PairBuffer pairs) {
+        
+        System.out.println(label + pairs.get_size() + " pairs, " + pairs.get_bytes() + " bytes (" 
+                           + pairs.get_size()*PairBuffer.get_legacyBytesPerPair() + " as Distance objects)");
+    }
+    
     //prints to screen all atoms from PDB file
     public void print_allAtoms(){
     
@@ -172,7 +359,7 @@ public class DistanceData {
     //prints to screen pairwise generated data based off atoms from PDB file
     public void print_pwDistances() {
     
-        for(Distance di : this.pairwiseDistances){
+        for(Distance di : this.get_pairwise_distances()){
             di.get_atom1().getATOMinfo();
             di.get_atom2().getATOMinfo();
             System.out.println("Distance between atoms: " + di.get_distance());
@@ -0,0 +1,174 @@
+/*
+ * The purpose of this class is to solve the protein tree down to any depth,
+ * including the whole backbone, within a budget of memory and of time. The
+ * tree is expanded level by level while its frontier stays small, since that
+ * is the fastest way to search it. Once the frontier grows past a given
+ * number of nodes, or the arena past half of the memory budget, each node of
+ * the frontier is instead searched depth first in turn, which needs memory
+ * only for the current path. Searching the frontier from left to right finds
+ * the solutions in the same order as the level by level search would have.
+ * If the time budget runs out, or the solutions collected fill the memory
+ * budget, the search stops and keeps the solutions found so far. Only the
+ * part of the arena kept on the heap counts against the memory budget, so an
+ * arena kept off the heap is expanded level by level for as long as its
+ * frontier stays under the limit.
+ *
+ * With a checkpoint, the levels expanded level by level are appended to it,
+ * followed by the position within the frontier of each node searched depth
+ * first and that search's stack and solutions, so a resumed search carries on
+ * from the node it had reached.
+ */
+
+import java.util.*;
+
+public class HybridSolver {
+
+    //expands the frontier and each depth first subtree
+    private ProteinDetermination pd;
+
+    //largest number of frontier nodes expanded level by level
+    private int frontierLimit;
+
+    //memory budget in bytes, and time budget in nanoseconds
+    private long memoryBudget, timeBudget;
+
+    //level at which the search switched to depth first, 0 if it didn't
+    private int switchLevel;
+
+    //why the search stopped early, or null if it finished
+    private String stopReason;
+
+    //constructor
+    public HybridSolver(ProteinDetermination p, int frontier, long memoryBytes, long timeNanos) {
+
+        this.pd = p;
+        this.frontierLimit = frontier;
+        this.memoryBudget = memoryBytes;
+        this.timeBudget = timeNanos;
+        this.switchLevel = 0;
+        this.stopReason = null;
+    }
+
+    //solves the tree from the frontier, which sits at rootLevel, down to the
+    //last level and returns every solution found, deepest node first, in
+    //left to right order. finished levels, and the depth first searches, 
+    //are appended to the checkpoint if it isn't null.
+    public ArrayList<Node[]> solve(ProteinTree pt, int[] frontier, int rootLevel, int lastLevel, ArrayList<Distance> covDistances, RestraintIndex nmr, Checkpoint cp) {
+
+        long deadline = this.timeBudget > 0 ? System.nanoTime() + this.timeBudget : Long.MAX_VALUE;
+        NodeArena arena = pt.get_arena();
+        int level = rootLevel;
+
+        //a resumed search that had switched to depth first carries on from
+        //the level it switched at
+        boolean switched = cp != null && cp.get_root() >= 0;
+
+        while(level < lastLevel && !switched) {
+
+            if(System.nanoTime() > deadline) {
+                this.stopReason = "time budget reached at level " + level;
+                return new ArrayList<>();
+            }
+
+            //the next level would hold up to twice as many nodes. only the
+            //part of the arena kept on the heap counts against the budget.
+            long arenaBytes = (long)((arena.get_size() + 2L*frontier.length)*arena.get_heapBytesPerNode());
+
+            if(frontier.length > this.frontierLimit || arenaBytes > this.memoryBudget/2)
+                break;
+
+            frontier = this.pd.solve_levels(pt, frontier, level, level+1, covDistances, nmr, cp);
+            level++;
+        }
+
+        ArrayList<Node[]> solutions = new ArrayList<>();
+
+        if(level == lastLevel) {
+            for(int n : frontier)
+                solutions.add(arena.extract_solution(n, lastLevel));
+            return solutions;
+        }
+
+        this.switchLevel = level;
+        this.search_depthFirst(arena, frontier, level, lastLevel, covDistances, nmr, deadline, solutions, cp);
+
+        return solutions;
+    }
+
+    //searches the subtree of each frontier node depth first, in order, each
+    //from a copy of its path in a small arena of its own. with a checkpoint,
+    //the search resumes from the frontier node it had reached.
+    private void search_depthFirst(NodeArena arena, int[] frontier, int level, int lastLevel, ArrayList<Distance> covDistances, RestraintIndex nmr, long deadline, ArrayList<Node[]> solutions, Checkpoint cp) {
+
+        ProteinTree local = new ProteinTree(new NodeArena(4*lastLevel));
+        final DepthFirstSearch dfs = new DepthFirstSearch(this.pd);
+        dfs.set_deadline(deadline);
+
+        //bytes held by the nodes and atoms of each solution collected
+        final long solutionBytes = (long)(lastLevel*NodeArena.get_legacyBytesPerNode());
+        final long arenaBytes = (long)(arena.get_size()*arena.get_heapBytesPerNode());
+
+        SolutionConsumer collector = new SolutionConsumer() {
+
+            @Override
+            public void accept(Node[] sol, double dme) {
+
+                solutions.add(sol);
+
+                if(arenaBytes + solutions.size()*solutionBytes > memoryBudget)
+                    dfs.stop();
+            }
+
+            @Override
+            public void finish() {}
+        };
+
+        int first = cp == null ? 0 : Math.max(cp.get_root(), 0);
+        boolean resumeStack = cp != null && cp.has_stack();
+
+        //the solutions found below the frontier nodes before the one resumed
+        //from are passed on again, by the stack if there is one
+        if(cp != null && cp.get_root() >= 0 && !resumeStack) {
+
+            for(int l = level+1; l <= lastLevel; l++)
+                this.pd.label_level(arena, l, covDistances);
+            cp.replay_solutions(arena, collector);
+        }
+
+        for(int i = first; i < frontier.length; i++) {
+
+            if(cp != null && !(i == first && resumeStack))
+                cp.begin_root(i);
+
+            local.get_arena().clear();
+            int copy = local.get_arena().copy_path(arena, frontier[i], level);
+            dfs.search(local, copy, level, lastLevel, covDistances, nmr, collector, cp);
+
+            if(dfs.was_stopped()) {
+
+                this.stopReason = System.nanoTime() > deadline ? "time budget reached" : "memory budget reached";
+                this.stopReason += " while searching depth first from level " + level;
+                return;
+            }
+        }
+    }
+
+    //getter for the level at which the search switched to depth first
+    public int get_switchLevel()
+        {return this.switchLevel;}
+
+    //getter for why the search stopped early, null if it finished
+    public String get_stopReason()
+        {return this.stopReason;}
+
+    //prints to screen how the search went
+    public void print_summary(int lastLevel, int found) {
+
+        System.out.println("HYBRID SEARCH");
+        System.out.println("atoms placed:       " + lastLevel);
+        System.out.println("depth first from:   " + (this.switchLevel > 0 ? "level " + this.switchLevel : "never"));
+        System.out.println("solutions found:    " + found);
+        System.out.println("finished:           " + (this.stopReason == null ? "yes" : "no, " + this.stopReason));
+        System.out.println();
+    }
+}
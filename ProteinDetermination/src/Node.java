@@ -2,11 +2,11 @@
  * The class is the node object that the binary tree will consist of. Each node 
  * represents an atom with a unique x,y,z-coordinate. Since the only data 
  * structure being used for this program is a binary tree, only a left and right 
- * child, and single parent, will be stored for each node.
+ * child, and single parent, will be stored for each node. The tree itself is
+ * stored in a NodeArena, and nodes are only created when a solution is
+ * extracted from it.
  */
 
-import Jama.*;
-
 public class Node {
     
     //index to keep track of which position the node is within the protein tree
@@ -93,11 +93,10 @@ public class Node {
     //prints to screen cumulative torsion matrix
     public void print_cTorsionMatrix() {
     
-        Matrix m = new Matrix(this.cTorsionMatrix);
         System.out.println("CUMULATIVE TORSION MATRIX");
         for(int i = 0 ; i < 4; i++){
             for(int k = 0; k < 4; k++)
-                System.out.print(String.format("%-7.3f", m.get(i, k)));
+                System.out.print(String.format("%-7.3f", this.cTorsionMatrix[i][k]));
             
             System.out.println();
         }
@@ -0,0 +1,315 @@
+/*
+ * The purpose of this class is to store every node of the protein tree in
+ * flat primitive arrays rather than as individual Node and Atom objects. A
+ * node is referred to by its integer id, which is its position within the
+ * arrays. Since every node of a given level holds the same atom, the name and
+ * index of that atom are stored once per level instead of once per node.
+ *
+ * The parent, coordinates, error and torsion matrix of each node are only
+ * reached through the methods below, so that a subclass can keep them
+ * elsewhere, such as OffHeapArena does outside the heap.
+ */
+
+import java.util.*;
+
+public class NodeArena {
+
+    //number of doubles used to store the top three rows of a node's
+    //cumulative torsion matrix, the bottom row is always {0,0,0,1}.
+    public static final int TRANSFORM_SIZE = TorsionMatrix.SIZE;
+
+    //bits of the status bitset, two bits are used for each node
+    private static final int CHECKED = 1, STOP = 2;
+
+    //number of nodes currently stored, and the number that fit before the
+    //arena must grow
+    private int size, capacity;
+
+    //id of each node's parent, -1 for the first node
+    private int[] parent;
+
+    //x,y,z coordinates of the atom belonging to each node
+    private double[] x, y, z;
+
+    //squared distance error accumulated by each node and its ancestors
+    private double[] error;
+
+    //packed 3x4 cumulative torsion matrix of each node, row by row
+    private double[] transform;
+
+    //checked and stop flags for each node
+    private long[] status;
+
+    //name and index of the atom placed at each level
+    private String[] levelNames;
+    private int[] levelIndices;
+
+    //constructor
+    public NodeArena(int capacity)
+        {this(capacity, true);}
+
+    //constructor for an arena whose nodes are kept in its own arrays if
+    //onHeap is set, or by the subclass otherwise. the flags of every node
+    //and the atom of every level are always kept here.
+    protected NodeArena(int capacity, boolean onHeap) {
+
+        capacity = Math.max(capacity, 4);
+
+        this.size = 0;
+        this.capacity = capacity;
+        this.status = new long[(capacity+31)/32];
+        this.levelNames = new String[16];
+        this.levelIndices = new int[16];
+
+        if(onHeap) {
+            this.parent = new int[capacity];
+            this.x = new double[capacity];
+            this.y = new double[capacity];
+            this.z = new double[capacity];
+            this.error = new double[capacity];
+            this.transform = new double[capacity*TRANSFORM_SIZE];
+        }
+    }
+
+    //appends a new node to the arena and returns its id
+    public int add_node(int p) {
+
+        if(this.size == this.capacity)
+            this.grow();
+
+        int n = this.size++;
+        this.set_parent(n, p);
+        this.status[n >>> 5] &= ~(3L << ((n & 31) << 1));
+
+        return n;
+    }
+
+    //removes every node from the arena while keeping its arrays, so that it
+    //can be reused.
+    public void clear()
+        {this.size = 0;}
+
+    //removes every node whose id is at least size, so that the arena can be
+    //used as a stack.
+    public void truncate(int size)
+        {this.size = Math.min(this.size, size);}
+
+    //copies the path from the first node down to node n of another arena,
+    //which sits at the given level, into this arena along with the atoms of
+    //those levels. returns the id of the copy of node n.
+    public int copy_path(NodeArena src, int n, int level) {
+
+        int[] path = new int[level];
+
+        for(int k = level-1; k >= 0; k--) {
+            path[k] = n;
+            n = src.get_parent(n);
+        }
+
+        int copy = -1;
+
+        for(int k = 0; k < level; k++) {
+
+            copy = this.add_node(copy);
+
+            this.set_xyz(copy, src.get_x(path[k]), src.get_y(path[k]), src.get_z(path[k]));
+            this.set_error(copy, src.get_error(path[k]));
+            for(int i = 0; i < TRANSFORM_SIZE; i++)
+                this.set_transform(copy, i, src.get_transform(path[k], i));
+            this.set_checked(copy, src.get_checked(path[k]));
+            this.set_stop(copy, src.get_stop(path[k]));
+
+            this.set_levelAtom(k+1, src.levelNames[k+1], src.levelIndices[k+1]);
+        }
+
+        return copy;
+    }
+
+    //doubles the capacity of the arena
+    private void grow() {
+
+        this.capacity = 2*this.capacity;
+        this.resize(this.capacity);
+        this.status = Arrays.copyOf(this.status, (this.capacity+31)/32);
+    }
+
+    //makes room for the given number of nodes in every array. a subclass
+    //that keeps the nodes itself makes room for them in its own storage.
+    protected void resize(int capacity) {
+
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.z = Arrays.copyOf(this.z, capacity);
+        this.error = Arrays.copyOf(this.error, capacity);
+        this.transform = Arrays.copyOf(this.transform, capacity*TRANSFORM_SIZE);
+    }
+
+    //records the atom that is placed at the given level
+    public void set_levelAtom(int level, String name, int index) {
+
+        if(level >= this.levelNames.length) {
+            this.levelNames = Arrays.copyOf(this.levelNames, 2*level);
+            this.levelIndices = Arrays.copyOf(this.levelIndices, 2*level);
+        }
+
+        this.levelNames[level] = name;
+        this.levelIndices[level] = index;
+    }
+
+    //getter for the name of the atom at a level
+    public String get_levelName(int level)
+        {return this.levelNames[level];}
+
+    //getter for the index of the atom at a level
+    public int get_levelIndex(int level)
+        {return this.levelIndices[level];}
+
+    //getter for number of nodes
+    public int get_size()
+        {return this.size;}
+
+    //getter for number of nodes that fit before the arena grows
+    public int get_capacity()
+        {return this.capacity;}
+
+    //setter for parent id
+    protected void set_parent(int n, int p)
+        {this.parent[n] = p;}
+
+    //getter for parent id
+    public int get_parent(int n)
+        {return this.parent[n];}
+
+    //setter for all three coordinates
+    public void set_xyz(int n, double xx, double yy, double zz)
+        {this.x[n]=xx; this.y[n]=yy; this.z[n]=zz;}
+
+    //getter for x coordinate
+    public double get_x(int n)
+        {return this.x[n];}
+
+    //getter for y coordinate
+    public double get_y(int n)
+        {return this.y[n];}
+
+    //getter for z coordinate
+    public double get_z(int n)
+        {return this.z[n];}
+
+    //setter for accumulated squared error
+    public void set_error(int n, double e)
+        {this.error[n] = e;}
+
+    //getter for accumulated squared error
+    public double get_error(int n)
+        {return this.error[n];}
+
+    //getter for the kth entry of a node's transform
+    public double get_transform(int n, int k)
+        {return this.transform[n*TRANSFORM_SIZE + k];}
+
+    //setter for the kth entry of a node's transform
+    public void set_transform(int n, int k, double v)
+        {this.transform[n*TRANSFORM_SIZE + k] = v;}
+
+    //sets the transform of node n to the packed torsion matrix held in B
+    //from offset off, or to the product of the transform of node p with that
+    //matrix unless p is -1. the atom of node n is placed at the translation
+    //of its transform.
+    public void compose_transform(int n, int p, double[] B, int off) {
+
+        int o = n*TRANSFORM_SIZE;
+
+        if(p < 0)
+            System.arraycopy(B, off, this.transform, o, TRANSFORM_SIZE);
+        else
+            TorsionMatrix.eval_cumuTorsionMatrix(this.transform, p*TRANSFORM_SIZE, B, off, this.transform, o);
+
+        this.set_xyz(n, this.transform[o+TorsionMatrix.X], this.transform[o+TorsionMatrix.Y], this.transform[o+TorsionMatrix.Z]);
+    }
+
+    //setter for checked flag
+    public void set_checked(int n, boolean b)
+        {this.set_status(n, CHECKED, b);}
+
+    //getter for checked flag
+    public boolean get_checked(int n)
+        {return this.get_status(n, CHECKED);}
+
+    //setter for stop flag
+    public void set_stop(int n, boolean b)
+        {this.set_status(n, STOP, b);}
+
+    //getter for stop flag
+    public boolean get_stop(int n)
+        {return this.get_status(n, STOP);}
+
+    private void set_status(int n, int bit, boolean b) {
+
+        long mask = (long)bit << ((n & 31) << 1);
+
+        if(b)
+            this.status[n >>> 5] |= mask;
+        else
+            this.status[n >>> 5] &= ~mask;
+    }
+
+    private boolean get_status(int n, int bit)
+        {return (this.status[n >>> 5] & ((long)bit << ((n & 31) << 1))) != 0;}
+
+    //creates an atom object for the node, which sits at the given level
+    public Atom get_atom(int n, int level)
+        {return new Atom(this.levelNames[level], this.levelIndices[level], this.get_x(n), this.get_y(n), this.get_z(n));}
+
+    //walks from a node at the given level back to the first node, and returns
+    //the path as an array of nodes with the deepest node first.
+    public Node[] extract_solution(int n, int level) {
+
+        Node[] sol = new Node[level];
+
+        for(int k = 0; k < level; k++) {
+
+            sol[k] = new Node(level-k, this.get_atom(n, level-k), null, false, false);
+
+            if(k > 0)
+                sol[k-1].set_parent(sol[k]);
+
+            n = this.get_parent(n);
+        }
+
+        return sol;
+    }
+
+    //bytes used per node by the arena's arrays
+    public double get_bytesPerNode()
+        {return 4 + 3*8 + 8 + TRANSFORM_SIZE*8 + 2/8.0;}
+
+    //bytes used per node on the heap
+    public double get_heapBytesPerNode()
+        {return this.get_bytesPerNode();}
+
+    //where the nodes are kept
+    public String get_storage()
+        {return "heap";}
+
+    //estimated bytes per node retained by the previous Node/Atom tree on a
+    //64 bit JVM with compressed references: a Node object (48), its
+    //double[4][4] cumulative torsion matrix (an outer array of 32 plus four
+    //rows of 48) and an Atom object (48). atom names were already shared.
+    public static double get_legacyBytesPerNode()
+        {return 48 + (32 + 4*48) + 48;}
+
+    //prints to screen the memory footprint of the arena against that of the
+    //previous Node/Atom tree
+    public void print_footprint() {
+
+        System.out.println("NODE FOOTPRINT");
+        System.out.println("storage:                  " + this.get_storage());
+        System.out.println("nodes stored:             " + this.size);
+        System.out.println("Node/Atom bytes per node: " + String.format("%.2f", get_legacyBytesPerNode()));
+        System.out.println("arena bytes per node:     " + String.format("%.2f", this.get_bytesPerNode()));
+        System.out.println("arena bytes allocated:    " + (long)(this.capacity*this.get_bytesPerNode()));
+        System.out.println();
+    }
+}
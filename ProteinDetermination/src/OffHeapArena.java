@@ -0,0 +1,221 @@
+/*
+ * The purpose of this class is to keep the nodes of the protein tree outside
+ * the Java heap, so that the garbage collector never has to trace or copy
+ * them. The parent, coordinates, error and torsion matrix of each node are
+ * written as one fixed size record into direct byte buffers, or into the
+ * pages of a scratch file mapped into memory. Direct buffers are limited by
+ * -XX:MaxDirectMemorySize, which defaults to the maximum heap size, so they
+ * hold no more nodes than the heap would. Only with a scratch file can a
+ * level far wider than the heap be stored: the operating system pages the
+ * records in and out and the arena is bounded by the disk rather than by
+ * memory. The buffers are allocated in chunks of a fixed number of nodes,
+ * so growing the arena appends a chunk rather than copying every node. Only
+ * the two flags of each node stay on the heap.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class OffHeapArena extends NodeArena {
+
+    //byte offsets of the fields of a node's record: its parent id, padded to
+    //keep the doubles aligned, its x,y,z coordinates, its error and its
+    //packed torsion matrix
+    private static final int PARENT = 0, X = 8, Y = 16, Z = 24, ERROR = 32, TRANSFORM = 40;
+    private static final int RECORD = TRANSFORM + 8*TRANSFORM_SIZE;
+
+    //each chunk holds 2^CHUNK_SHIFT nodes
+    private static final int CHUNK_SHIFT = 14, CHUNK_NODES = 1 << CHUNK_SHIFT, CHUNK_MASK = CHUNK_NODES-1;
+    private static final long CHUNK_BYTES = (long)CHUNK_NODES*RECORD;
+
+    //chunks holding the records of the nodes, in id order, and the number
+    //allocated
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+
+    //scratch file the chunks are mapped from, and its channel, or null if
+    //the chunks are direct buffers
+    private File scratch;
+    private FileChannel channel;
+
+    //holds a parent's transform and its product while a transform is
+    //composed
+    private double[] parentTransform, product;
+
+    //constructor for an arena of direct buffers
+    public OffHeapArena(int capacity) {
+
+        super(capacity, false);
+        this.init();
+        this.resize(capacity);
+    }
+
+    //constructor for an arena mapped from a new scratch file in the given
+    //directory, or in the temporary directory if it's null. the file is
+    //deleted when the arena is closed, or at the latest when the program
+    //exits.
+    public OffHeapArena(int capacity, File directory) throws IOException {
+
+        super(capacity, false);
+        this.init();
+
+        this.scratch = File.createTempFile("arena", ".scratch", directory);
+        this.scratch.deleteOnExit();
+        this.channel = new RandomAccessFile(this.scratch, "rw").getChannel();
+        this.resize(capacity);
+    }
+
+    private void init() {
+
+        this.chunks = new ByteBuffer[16];
+        this.chunkCount = 0;
+        this.parentTransform = new double[TRANSFORM_SIZE];
+        this.product = new double[TRANSFORM_SIZE];
+    }
+
+    //appends chunks until the given number of nodes fit
+    @Override
+    protected void resize(int capacity) {
+
+        try {
+            while((long)this.chunkCount*CHUNK_NODES < capacity) {
+
+                if(this.chunkCount == this.chunks.length)
+                    this.chunks = Arrays.copyOf(this.chunks, 2*this.chunkCount);
+
+                this.chunks[this.chunkCount] = this.allocate_chunk();
+                this.chunkCount++;
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //a new chunk, mapped from the next region of the scratch file if there
+    //is one
+    private ByteBuffer allocate_chunk() throws IOException {
+
+        ByteBuffer b;
+
+        if(this.channel == null)
+            b = ByteBuffer.allocateDirect((int)CHUNK_BYTES);
+        else
+            b = this.channel.map(FileChannel.MapMode.READ_WRITE, this.chunkCount*CHUNK_BYTES, CHUNK_BYTES);
+
+        return b.order(ByteOrder.nativeOrder());
+    }
+
+    //closes and deletes the scratch file, if there is one. the arena can't
+    //be used once closed.
+    public void close() throws IOException {
+
+        Arrays.fill(this.chunks, null);
+        this.chunkCount = 0;
+
+        if(this.channel != null) {
+            this.channel.close();
+            this.scratch.delete();
+            this.channel = null;
+        }
+    }
+
+    //chunk holding a node's record
+    private ByteBuffer chunk(int n)
+        {return this.chunks[n >>> CHUNK_SHIFT];}
+
+    //byte offset of a node's record within its chunk
+    private static int offset(int n)
+        {return (n & CHUNK_MASK)*RECORD;}
+
+    @Override
+    protected void set_parent(int n, int p)
+        {this.chunk(n).putInt(offset(n) + PARENT, p);}
+
+    @Override
+    public int get_parent(int n)
+        {return this.chunk(n).getInt(offset(n) + PARENT);}
+
+    @Override
+    public void set_xyz(int n, double xx, double yy, double zz) {
+
+        ByteBuffer b = this.chunk(n);
+        int o = offset(n);
+
+        b.putDouble(o + X, xx);
+        b.putDouble(o + Y, yy);
+        b.putDouble(o + Z, zz);
+    }
+
+    @Override
+    public double get_x(int n)
+        {return this.chunk(n).getDouble(offset(n) + X);}
+
+    @Override
+    public double get_y(int n)
+        {return this.chunk(n).getDouble(offset(n) + Y);}
+
+    @Override
+    public double get_z(int n)
+        {return this.chunk(n).getDouble(offset(n) + Z);}
+
+    @Override
+    public void set_error(int n, double e)
+        {this.chunk(n).putDouble(offset(n) + ERROR, e);}
+
+    @Override
+    public double get_error(int n)
+        {return this.chunk(n).getDouble(offset(n) + ERROR);}
+
+    @Override
+    public double get_transform(int n, int k)
+        {return this.chunk(n).getDouble(offset(n) + TRANSFORM + 8*k);}
+
+    @Override
+    public void set_transform(int n, int k, double v)
+        {this.chunk(n).putDouble(offset(n) + TRANSFORM + 8*k, v);}
+
+    //the parent's transform is read into an array and the product written
+    //back, since the product is taken over arrays
+    @Override
+    public void compose_transform(int n, int p, double[] B, int off) {
+
+        double[] t = this.product;
+
+        if(p < 0)
+            System.arraycopy(B, off, t, 0, TRANSFORM_SIZE);
+        else {
+            ByteBuffer b = this.chunk(p);
+            int o = offset(p) + TRANSFORM;
+
+            for(int k = 0; k < TRANSFORM_SIZE; k++)
+                this.parentTransform[k] = b.getDouble(o + 8*k);
+
+            TorsionMatrix.eval_cumuTorsionMatrix(this.parentTransform, 0, B, off, t, 0);
+        }
+
+        ByteBuffer b = this.chunk(n);
+        int o = offset(n) + TRANSFORM;
+
+        for(int k = 0; k < TRANSFORM_SIZE; k++)
+            b.putDouble(o + 8*k, t[k]);
+
+        this.set_xyz(n, t[TorsionMatrix.X], t[TorsionMatrix.Y], t[TorsionMatrix.Z]);
+    }
+
+    //bytes used per node by the records and the flags
+    @Override
+    public double get_bytesPerNode()
+        {return RECORD + 2/8.0;}
+
+    //only the flags of a node are kept on the heap
+    @Override
+    public double get_heapBytesPerNode()
+        {return 2/8.0;}
+
+    @Override
+    public String get_storage()
+        {return this.channel == null ? "direct buffers" : "mapped file " + this.scratch;}
+}
@@ -0,0 +1,234 @@
+/*
+ * The purpose of this class is to store pairs of atoms and the distance 
+ * between them in primitive arrays, rather than as Distance objects. Each atom
+ * is referred to by its position within the list of atoms the pairs were 
+ * found in. Bounds are only stored once a pair is given bounds that differ
+ * from its distance, and the pairs can be sorted by their atoms so that the
+ * pairs of an atom are scanned from contiguous memory.
+ */
+
+import java.util.*;
+
+public class PairBuffer {
+    
+    //number of pairs stored
+    private int size;
+    
+    //positions of the two atoms of each pair, atom1 before atom2
+    private int[] atom1, atom2;
+    
+    //distance between the two atoms of each pair, and its lower and upper
+    //bounds. the bounds are null while every pair's bounds are its distance.
+    private float[] distance, lower, upper;
+    
+    //constructor
+    public PairBuffer(int capacity) {
+        
+        capacity = Math.max(capacity, 16);
+        
+        this.size = 0;
+        this.atom1 = new int[capacity];
+        this.atom2 = new int[capacity];
+        this.distance = new float[capacity];
+        this.lower = this.upper = null;
+    }
+    
+    //appends a pair whose bounds are both its distance
+    public void add(int i, int j, float d) {
+        
+        //a trimmed buffer may have no capacity at all
+        if(this.size == this.atom1.length)
+            this.resize(Math.max(16, 2*this.size));
+        
+        //the first atom of a pair is always the earlier one
+        this.atom1[this.size] = Math.min(i, j);
+        this.atom2[this.size] = Math.max(i, j);
+        this.distance[this.size] = d;
+        
+        if(this.lower != null)
+            this.lower[this.size] = this.upper[this.size] = d;
+        
+        this.size++;
+    }
+    
+    //appends a pair with the given bounds
+    public void add(int i, int j, float d, float lo, float hi) {
+        
+        this.add(i, j, d);
+        
+        if(lo != d || hi != d) {
+            this.store_bounds();
+            this.lower[this.size-1] = lo;
+            this.upper[this.size-1] = hi;
+        }
+    }
+    
+    //widens the bounds of every pair to the distance plus or minus the given
+    //tolerance
+    public void set_bounds(float tolerance) {
+        
+        this.store_bounds();
+        
+        for(int k = 0; k < this.size; k++) {
+            this.lower[k] = Math.max(0, this.distance[k] - tolerance);
+            this.upper[k] = this.distance[k] + tolerance;
+        }
+    }
+    
+    //allocates the bounds, each equal to its pair's distance, if they
+    //aren't stored yet
+    private void store_bounds() {
+        
+        if(this.lower != null)
+            return;
+        
+        this.lower = Arrays.copyOf(this.distance, this.distance.length);
+        this.upper = Arrays.copyOf(this.distance, this.distance.length);
+    }
+    
+    //changes the capacity of every array
+    private void resize(int capacity) {
+        
+        this.atom1 = Arrays.copyOf(this.atom1, capacity);
+        this.atom2 = Arrays.copyOf(this.atom2, capacity);
+        this.distance = Arrays.copyOf(this.distance, capacity);
+        
+        if(this.lower != null) {
+            this.lower = Arrays.copyOf(this.lower, capacity);
+            this.upper = Arrays.copyOf(this.upper, capacity);
+        }
+    }
+    
+    //releases the capacity beyond the pairs stored
+    public void trim() {
+        
+        if(this.size < this.atom1.length)
+            this.resize(this.size);
+    }
+    
+    //sorts the pairs by their first atom and then by their second, for a list
+    //of the given number of atoms. two stable counting sorts are used, the
+    //first by the second atom and then by the first, and nothing is done if
+    //the pairs are already in order.
+    public void sort(int atoms) {
+        
+        boolean sorted = true;
+        for(int k = 1; k < this.size && sorted; k++)
+            sorted = this.atom1[k-1] < this.atom1[k] || (this.atom1[k-1] == this.atom1[k] && this.atom2[k-1] <= this.atom2[k]);
+        
+        if(sorted)
+            return;
+        
+        int[] order = new int[this.size];
+        for(int k = 0; k < this.size; k++)
+            order[k] = k;
+        
+        order = counting_sort(order, this.atom2, atoms);
+        order = counting_sort(order, this.atom1, atoms);
+        
+        this.atom1 = permute(this.atom1, order);
+        this.atom2 = permute(this.atom2, order);
+        this.distance = permute(this.distance, order);
+        
+        if(this.lower != null) {
+            this.lower = permute(this.lower, order);
+            this.upper = permute(this.upper, order);
+        }
+    }
+    
+    //stable sort of the pairs listed in order by the given atom of each pair
+    private static int[] counting_sort(int[] order, int[] atom, int atoms) {
+        
+        int[] start = new int[atoms+1];
+        for(int k : order)
+            start[atom[k]+1]++;
+        
+        for(int i = 0; i < atoms; i++)
+            start[i+1] += start[i];
+        
+        int[] sorted = new int[order.length];
+        for(int k : order)
+            sorted[start[atom[k]]++] = k;
+        
+        return sorted;
+    }
+    
+    //arrays holding the values at the given positions, in order
+    private static int[] permute(int[] values, int[] order) {
+        
+        int[] p = new int[order.length];
+        for(int k = 0; k < order.length; k++)
+            p[k] = values[order[k]];
+        
+        return p;
+    }
+    
+    private static float[] permute(float[] values, int[] order) {
+        
+        float[] p = new float[order.length];
+        for(int k = 0; k < order.length; k++)
+            p[k] = values[order[k]];
+        
+        return p;
+    }
+    
+    //getter for number of pairs
+    public int get_size()
+        {return this.size;}
+    
+    //getter for position of the first atom of a pair
+    public int get_atom1(int k)
+        {return this.atom1[k];}
+    
+    //getter for position of the second atom of a pair
+    public int get_atom2(int k)
+        {return this.atom2[k];}
+    
+    //getter for distance of a pair
+    public float get_distance(int k)
+        {return this.distance[k];}
+    
+    //getter for lower bound of a pair
+    public float get_lower(int k)
+        {return this.lower == null ? this.distance[k] : this.lower[k];}
+    
+    //getter for upper bound of a pair
+    public float get_upper(int k)
+        {return this.upper == null ? this.distance[k] : this.upper[k];}
+    
+    //creates a distance object for every pair, using the atoms of the list
+    //the pairs were found in.
+    public ArrayList<Distance> to_distances(ArrayList<Atom> a) {
+        
+        ArrayList<Distance> pw = new ArrayList<>(this.size);
+        
+        for(int k = 0; k < this.size; k++) {
+            
+            Distance d = new Distance(a.get(this.atom1[k]), a.get(this.atom2[k]));
+            d.set_bounds(this.get_lower(k), this.get_upper(k));
+            pw.add(d);
+        }
+        
+        return pw;
+    }
+    
+    //builds an index of the pairs for a list of the given number of atoms
+    public RestraintIndex to_restraintIndex(int atoms) {
+        
+        float[] lo = this.lower == null ? this.distance : this.lower;
+        float[] hi = this.upper == null ? this.distance : this.upper;
+        
+        return new RestraintIndex(atoms, this.atom1, this.atom2, this.distance, lo, hi, this.size);
+    }
+    
+    //bytes allocated by the arrays
+    public long get_bytes()
+        {return 4L*this.atom1.length*(this.lower == null ? 3 : 5);}
+    
+    //estimated bytes retained by a pair stored as a Distance object on a 64
+    //bit JVM with compressed references: the Distance itself (32) and two
+    //copied Atom objects (48 each), each with its own name (a String of 24
+    //and its character array of 24).
+    public static long get_legacyBytesPerPair()
+        {return 32 + 2*(48 + 24 + 24);}
+}
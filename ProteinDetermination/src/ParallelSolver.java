@@ -0,0 +1,170 @@
+/*
+ * The purpose of this class is to solve the protein tree using several
+ * threads. The tree is first expanded level by level up to the split level,
+ * after which every node of the frontier is the root of an independent
+ * subtree. The subtrees are solved on a work-stealing pool, each worker using
+ * its own arena, of the kind given with -arena, as scratch space, and the
+ * solutions of the subtrees are then merged from left to right. The solutions, and their order, are therefore
+ * exactly those of the sequential search.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ParallelSolver {
+
+    //expands the frontier of each subtree
+    private ProteinDetermination pd;
+
+    //work-stealing pool that the subtrees are solved on
+    private ForkJoinPool pool;
+
+    //level below which the tree is split into subtrees
+    private int splitLevel;
+
+    //tree and arena reused by each worker thread for the subtrees it solves
+    private ThreadLocal<ProteinTree> scratch;
+
+    //every arena the workers have made, which are closed on shutdown
+    private ConcurrentLinkedQueue<NodeArena> arenas;
+
+    //constructor
+    public ParallelSolver(ProteinDetermination p, int threads, int split) {
+
+        this.pd = p;
+        this.pool = new ForkJoinPool(threads);
+        this.splitLevel = split;
+        this.arenas = new ConcurrentLinkedQueue<>();
+        this.scratch = ThreadLocal.withInitial(() -> {
+            NodeArena a = this.pd.create_arena();
+            this.arenas.add(a);
+            return new ProteinTree(a);
+        });
+    }
+
+    //solves the tree from its third node down to the last level and returns
+    //every solution, deepest node first, in left to right order.
+    public ArrayList<Node[]> solve(ProteinTree pt, ArrayList<Distance> covDistances, RestraintIndex nmr, int lastLevel)
+        {return this.solve(pt, pt.get_node3(), 3, covDistances, nmr, lastLevel);}
+
+    //solves the subtree below root, which sits at rootLevel, down to the last
+    //level and returns every solution in left to right order.
+    public ArrayList<Node[]> solve(ProteinTree pt, int root, int rootLevel, ArrayList<Distance> covDistances, RestraintIndex nmr, int lastLevel) {
+
+        int split = Math.max(rootLevel, Math.min(this.splitLevel, lastLevel));
+
+        //the levels above the split are expanded sequentially
+        int[] roots = this.pd.solve_levels(pt, new int[]{root}, rootLevel, split, covDistances, nmr);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<Node[]>[] results = new ArrayList[roots.length];
+
+        this.pool.invoke(new SubtreeTask(pt.get_arena(), roots, 0, roots.length, split, lastLevel, covDistances, nmr, results));
+
+        //worker results are merged in the order of their subtree roots
+        ArrayList<Node[]> solutions = new ArrayList<>();
+        for(ArrayList<Node[]> r : results)
+            solutions.addAll(r);
+
+        return solutions;
+    }
+
+    //stops the threads of the pool and closes the arenas of its workers,
+    //whose solutions have already been copied out of them
+    public void shutdown() {
+
+        this.pool.shutdown();
+
+        for(NodeArena a : this.arenas)
+            this.pd.close_arena(a);
+    }
+
+    //compares two lists of solutions atom by atom
+    public static boolean same_solutions(ArrayList<Node[]> a, ArrayList<Node[]> b) {
+
+        if(a.size() != b.size())
+            return false;
+
+        for(int k = 0; k < a.size(); k++) {
+
+            Node[] s1 = a.get(k), s2 = b.get(k);
+
+            if(s1.length != s2.length)
+                return false;
+
+            for(int i = 0; i < s1.length; i++) {
+
+                Atom a1 = s1[i].get_atom(), a2 = s2[i].get_atom();
+
+                if(a1.get_index() != a2.get_index() ||
+                   a1.get_xCoord() != a2.get_xCoord() ||
+                   a1.get_yCoord() != a2.get_yCoord() ||
+                   a1.get_zCoord() != a2.get_zCoord())
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    //solves the subtrees whose roots lie between from and to, splitting the
+    //range in half until a single subtree remains so idle workers can steal
+    //the other half.
+    private class SubtreeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private NodeArena arena;
+        private int[] roots;
+        private int from, to, split, lastLevel;
+        private ArrayList<Distance> covDistances;
+        private RestraintIndex nmr;
+        private ArrayList<Node[]>[] results;
+
+        SubtreeTask(NodeArena a, int[] r, int f, int t, int s, int l, ArrayList<Distance> cov, RestraintIndex n, ArrayList<Node[]>[] res) {
+
+            this.arena = a;
+            this.roots = r;
+            this.from = f;
+            this.to = t;
+            this.split = s;
+            this.lastLevel = l;
+            this.covDistances = cov;
+            this.nmr = n;
+            this.results = res;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(this.to - this.from > 1) {
+
+                int mid = (this.from + this.to) >>> 1;
+
+                invokeAll(new SubtreeTask(this.arena, this.roots, this.from, mid, this.split, this.lastLevel, this.covDistances, this.nmr, this.results),
+                          new SubtreeTask(this.arena, this.roots, mid, this.to, this.split, this.lastLevel, this.covDistances, this.nmr, this.results));
+            }
+            else
+            if(this.to - this.from == 1)
+                this.results[this.from] = this.solve_subtree(this.roots[this.from]);
+        }
+
+        //copies the path to the subtree root into the worker's arena and
+        //expands it down to the last level.
+        private ArrayList<Node[]> solve_subtree(int root) {
+
+            ProteinTree local = scratch.get();
+            NodeArena localArena = local.get_arena();
+            localArena.clear();
+
+            int copy = localArena.copy_path(this.arena, root, this.split);
+            int[] leaves = pd.solve_levels(local, new int[]{copy}, this.split, this.lastLevel, this.covDistances, this.nmr);
+
+            ArrayList<Node[]> sol = new ArrayList<>(leaves.length);
+            for(int n : leaves)
+                sol.add(localArena.extract_solution(n, this.lastLevel));
+
+            return sol;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * The purpose of this class is to hold the atoms of a single model of a PDB
+ * file in primitive arrays. An NMR ensemble contains many models, each of
+ * which is a complete copy of the protein. The atoms of a model are stored in
+ * file order, and a new chain begins whenever the chain identifier changes
+ * or a TER record is read.
+ */
+
+import java.util.*;
+
+public class PdbModel {
+
+    //model number given by the MODEL record, 1 if there is none
+    private int number;
+
+    //number of atoms stored
+    private int size;
+
+    //serial number and residue sequence number of each atom
+    private int[] serial, resSeq;
+
+    //atom and residue names, shared between atoms with the same name
+    private String[] name, resName;
+
+    //chain identifier of each atom
+    private char[] chainID;
+
+    //x,y,z coordinates of each atom
+    private float[] x, y, z;
+
+    //first atom of each chain, and the number of chains
+    private int[] chainStart;
+    private int chains;
+
+    //set by a TER record, so that the next atom begins a new chain
+    private boolean chainEnded;
+
+    //constructor
+    public PdbModel(int n) {
+
+        this.number = n;
+        this.size = 0;
+        this.serial = new int[64];
+        this.resSeq = new int[64];
+        this.name = new String[64];
+        this.resName = new String[64];
+        this.chainID = new char[64];
+        this.x = new float[64];
+        this.y = new float[64];
+        this.z = new float[64];
+        this.chainStart = new int[4];
+        this.chains = 0;
+        this.chainEnded = true;
+    }
+
+    //appends an atom, starting a new chain if the chain identifier changes
+    public void add_atom(int s, String n, String r, char c, int seq, float xx, float yy, float zz) {
+
+        if(this.size == this.serial.length)
+            this.grow();
+
+        if(this.chainEnded || c != this.chainID[this.size-1]) {
+
+            if(this.chains == this.chainStart.length)
+                this.chainStart = Arrays.copyOf(this.chainStart, 2*this.chains);
+
+            this.chainStart[this.chains++] = this.size;
+            this.chainEnded = false;
+        }
+
+        int i = this.size++;
+
+        this.serial[i] = s;
+        this.name[i] = n;
+        this.resName[i] = r;
+        this.chainID[i] = c;
+        this.resSeq[i] = seq;
+        this.x[i] = xx;
+        this.y[i] = yy;
+        this.z[i] = zz;
+    }
+
+    //ends the current chain (a TER record)
+    public void end_chain()
+        {this.chainEnded = true;}
+
+    //doubles the capacity of every array
+    private void grow() {
+
+        int capacity = 2*this.size;
+
+        this.serial = Arrays.copyOf(this.serial, capacity);
+        this.resSeq = Arrays.copyOf(this.resSeq, capacity);
+        this.name = Arrays.copyOf(this.name, capacity);
+        this.resName = Arrays.copyOf(this.resName, capacity);
+        this.chainID = Arrays.copyOf(this.chainID, capacity);
+        this.x = Arrays.copyOf(this.x, capacity);
+        this.y = Arrays.copyOf(this.y, capacity);
+        this.z = Arrays.copyOf(this.z, capacity);
+    }
+
+    //creates an atom object for every atom of the model, numbered from 1 in
+    //file order
+    public ArrayList<Atom> to_atoms() {
+
+        ArrayList<Atom> atoms = new ArrayList<>(this.size);
+
+        for(int i = 0; i < this.size; i++)
+            atoms.add(new Atom(this.name[i], i+1, this.x[i], this.y[i], this.z[i]));
+
+        return atoms;
+    }
+
+    //getter for model number
+    public int get_number()
+        {return this.number;}
+
+    //getter for number of atoms
+    public int get_size()
+        {return this.size;}
+
+    //getter for number of chains
+    public int get_chains()
+        {return this.chains;}
+
+    //getter for the first atom of a chain
+    public int get_chainStart(int c)
+        {return this.chainStart[c];}
+
+    //getter for the end (exclusive) of a chain
+    public int get_chainEnd(int c)
+        {return c+1 < this.chains ? this.chainStart[c+1] : this.size;}
+
+    //getter for serial number
+    public int get_serial(int i)
+        {return this.serial[i];}
+
+    //getter for atom name
+    public String get_name(int i)
+        {return this.name[i];}
+
+    //getter for residue name
+    public String get_resName(int i)
+        {return this.resName[i];}
+
+    //getter for chain identifier
+    public char get_chainID(int i)
+        {return this.chainID[i];}
+
+    //getter for residue sequence number
+    public int get_resSeq(int i)
+        {return this.resSeq[i];}
+
+    //getter for x coordinate
+    public float get_x(int i)
+        {return this.x[i];}
+
+    //getter for y coordinate
+    public float get_y(int i)
+        {return this.y[i];}
+
+    //getter for z coordinate
+    public float get_z(int i)
+        {return this.z[i];}
+}
@@ -0,0 +1,257 @@
+/*
+ * The purpose of this class is to read the atoms of a PDB file. The file is
+ * memory mapped and each ATOM record is parsed straight from its fixed
+ * columns into the primitive arrays of a PdbModel, without creating a String
+ * for every line. MODEL and ENDMDL records split the atoms of an NMR ensemble
+ * into separate models, and chains are split by their chain identifier and
+ * by TER records.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class PdbReader {
+
+    //exact powers of ten used to scale parsed decimals
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+
+    //open addressing table of the atom and residue names read so far, keyed
+    //by their packed bytes, so that only one String is created for each
+    //distinct name
+    private long[] nameKeys;
+    private String[] names;
+    private int nameCount;
+
+    //totals over every file read, used to report parse throughput
+    private long bytesRead, atomsRead, nanos;
+
+    //constructor
+    public PdbReader() {
+
+        this.nameKeys = new long[256];
+        this.names = new String[256];
+        this.nameCount = 0;
+        this.bytesRead = 0;
+        this.atomsRead = 0;
+        this.nanos = 0;
+    }
+
+    //reads every model of the PDB file at the given path
+    public ArrayList<PdbModel> read(String path) throws IOException {
+
+        long start = System.nanoTime();
+        ArrayList<PdbModel> models = new ArrayList<>();
+
+        try (FileChannel fc = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+            long length = fc.size();
+
+            if(length > Integer.MAX_VALUE)
+                throw new IOException("PDB file is too large to map: " + path);
+
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            PdbModel model = null;
+            int end = (int)length;
+            int line = 0;
+
+            while(line < end) {
+
+                //finds the end of the current line
+                int eol = line;
+                while(eol < end && buf.get(eol) != '\n')
+                    eol++;
+
+                int len = eol - line;
+                if(len > 0 && buf.get(eol-1) == '\r')
+                    len--;
+
+                if(starts_with(buf, line, len, "ATOM  ")) {
+
+                    if(model == null) {
+                        model = new PdbModel(1);
+                        models.add(model);
+                    }
+
+                    this.parse_atom(buf, line, len, model);
+                }
+                else
+                if(starts_with(buf, line, len, "MODEL ")) {
+
+                    model = new PdbModel(parse_int(buf, line, len, 10, 14));
+                    models.add(model);
+                }
+                else
+                if(starts_with(buf, line, len, "ENDMDL"))
+                    model = null;
+                else
+                if(starts_with(buf, line, len, "TER") && model != null)
+                    model.end_chain();
+
+                line = eol+1;
+            }
+
+            this.bytesRead += length;
+        }
+
+        this.nanos += System.nanoTime() - start;
+
+        return models;
+    }
+
+    //parses the fixed columns of an ATOM record
+    private void parse_atom(ByteBuffer buf, int line, int len, PdbModel model) {
+
+        int serial = parse_int(buf, line, len, 6, 11);
+        String name = this.parse_name(buf, line, len, 12, 16);
+        String resName = this.parse_name(buf, line, len, 17, 20);
+        char chain = len > 21 ? (char)buf.get(line+21) : ' ';
+        int resSeq = parse_int(buf, line, len, 22, 26);
+
+        float x = parse_float(buf, line, len, 30, 38);
+        float y = parse_float(buf, line, len, 38, 46);
+        float z = parse_float(buf, line, len, 46, 54);
+
+        model.add_atom(serial, name, resName, chain, resSeq, x, y, z);
+        this.atomsRead++;
+    }
+
+    //returns true if the line begins with the given record name
+    private static boolean starts_with(ByteBuffer buf, int line, int len, String record) {
+
+        if(len < record.length())
+            return false;
+
+        for(int i = 0; i < record.length(); i++)
+            if(buf.get(line+i) != record.charAt(i))
+                return false;
+
+        return true;
+    }
+
+    //parses the integer found between columns from and to (exclusive)
+    private static int parse_int(ByteBuffer buf, int line, int len, int from, int to) {
+
+        int value = 0;
+        boolean negative = false;
+
+        for(int i = from; i < Math.min(to, len); i++) {
+
+            byte b = buf.get(line+i);
+
+            if(b == '-')
+                negative = true;
+            else
+            if(b >= '0' && b <= '9')
+                value = 10*value + (b - '0');
+        }
+
+        return negative ? -value : value;
+    }
+
+    //parses the decimal number found between columns from and to
+    //(exclusive). the digits are read as an integer and scaled once, giving
+    //the same value as Float.parseFloat for the short decimals of a PDB file.
+    private static float parse_float(ByteBuffer buf, int line, int len, int from, int to) {
+
+        long mantissa = 0;
+        int decimals = -1;
+        boolean negative = false;
+
+        for(int i = from; i < Math.min(to, len); i++) {
+
+            byte b = buf.get(line+i);
+
+            if(b == '-')
+                negative = true;
+            else
+            if(b == '.')
+                decimals = 0;
+            else
+            if(b >= '0' && b <= '9') {
+                mantissa = 10*mantissa + (b - '0');
+                if(decimals >= 0)
+                    decimals++;
+            }
+        }
+
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+
+        return (float)(negative ? -value : value);
+    }
+
+    //returns the trimmed name found between columns from and to (exclusive),
+    //creating a String only the first time a name is seen
+    private String parse_name(ByteBuffer buf, int line, int len, int from, int to) {
+
+        long key = 0;
+
+        for(int i = from; i < to; i++)
+            key = (key << 8) | (i < len ? buf.get(line+i) & 0xff : ' ');
+
+        int slot = this.find_slot(this.nameKeys, this.names, key);
+
+        if(this.names[slot] == null) {
+
+            StringBuilder sb = new StringBuilder();
+            for(int i = from; i < Math.min(to, len); i++)
+                sb.append((char)buf.get(line+i));
+
+            this.nameKeys[slot] = key;
+            this.names[slot] = sb.toString().trim();
+
+            //the table is kept at most half full
+            if(++this.nameCount > this.names.length/2)
+                this.grow_names();
+            
+            slot = this.find_slot(this.nameKeys, this.names, key);
+        }
+
+        return this.names[slot];
+    }
+
+    //finds the slot holding the key, or the empty slot where it belongs
+    private int find_slot(long[] keys, String[] values, long key) {
+
+        int mask = keys.length-1;
+        int slot = (int)((key ^ (key >>> 29)) * 0x9E3779B97F4A7C15L >>> 40) & mask;
+
+        while(values[slot] != null && keys[slot] != key)
+            slot = (slot+1) & mask;
+
+        return slot;
+    }
+
+    //doubles the size of the name table
+    private void grow_names() {
+
+        long[] keys = new long[2*this.nameKeys.length];
+        String[] values = new String[2*this.names.length];
+
+        for(int i = 0; i < this.names.length; i++)
+            if(this.names[i] != null) {
+                int slot = this.find_slot(keys, values, this.nameKeys[i]);
+                keys[slot] = this.nameKeys[i];
+                values[slot] = this.names[i];
+            }
+
+        this.nameKeys = keys;
+        this.names = values;
+    }
+
+    //prints to screen the parse throughput over every file read
+    public void print_throughput() {
+
+        double seconds = this.nanos/1e9;
+
+        System.out.println("PDB PARSE THROUGHPUT");
+        System.out.println("bytes read:    " + this.bytesRead);
+        System.out.println("atoms read:    " + this.atomsRead);
+        System.out.println("time (ms):     " + String.format("%.3f", seconds*1e3));
+        System.out.println("MB per second: " + String.format("%.1f", this.bytesRead/1e6/seconds));
+        System.out.println("atoms per sec: " + String.format("%.0f", this.atomsRead/seconds));
+        System.out.println();
+    }
+}
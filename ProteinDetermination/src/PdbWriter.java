@@ -0,0 +1,271 @@
+/*
+ * The purpose of this class is to write the solutions it receives as PDB
+ * files, either each to its own file (solution0.pdb, solution1.pdb and so on)
+ * or all to a single file with one MODEL record per solution. The ATOM
+ * records follow the fixed columns of the PDB format and are encoded straight
+ * into a byte buffer. Solutions are handed to a background thread through a
+ * bounded queue, so the search never waits on the disk unless it finds
+ * solutions faster than they can be written.
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+
+public class PdbWriter implements SolutionConsumer {
+
+    //length of every record, not counting the line break
+    private static final int RECORD = 80;
+
+    //powers of ten used to round coordinates
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+
+    //marks the end of the solutions in the queue
+    private static final Node[] END = new Node[0];
+
+    //name of the single file, or the prefix of each solution's file
+    private String path;
+
+    //if set, every solution is written as a model of a single file
+    private boolean multiModel;
+
+    //model the solution's atoms were read from, used for the residue of each
+    //atom, or null if it isn't known
+    private PdbModel residues;
+
+    //solutions waiting to be written, and the thread writing them
+    private BlockingQueue<Node[]> queue;
+    private Thread thread;
+
+    //number of solutions written, and the first error met while writing
+    private volatile int written;
+    private volatile IOException error;
+
+    //buffer each record is encoded into
+    private byte[] line;
+
+    //constructor. with multiModel set every solution is written to the file
+    //path, otherwise solution k is written to path+k+".pdb". capacity is the
+    //number of solutions that may wait to be written.
+    public PdbWriter(String p, boolean multi, PdbModel m, int capacity) {
+
+        this.path = p;
+        this.multiModel = multi;
+        this.residues = m;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.line = new byte[RECORD+1];
+        this.line[RECORD] = '\n';
+        this.written = 0;
+
+        this.thread = new Thread(this::write_all, "pdb-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void accept(Node[] sol, double dme) {
+
+        try {
+            this.queue.put(sol);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void finish() {
+
+        try {
+            this.queue.put(END);
+            this.thread.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if(this.error != null)
+            System.out.println("Couldn't write solutions: " + this.error.getMessage());
+    }
+
+    //takes solutions from the queue and writes them until the end is reached.
+    //after an error, including a single file that can't be opened, the 
+    //remaining solutions are still taken, so the search isn't blocked, but
+    //not written.
+    private void write_all() {
+
+        OutputStream out = null;
+
+        try {
+
+            if(this.multiModel)
+                try {
+                    out = new BufferedOutputStream(new FileOutputStream(this.path), 1 << 16);
+                }
+                catch(IOException e)
+                    {this.error = e;}
+
+            for(Node[] sol = this.queue.take(); sol != END; sol = this.queue.take()) {
+
+                if(this.error != null)
+                    continue;
+
+                try {
+
+                    if(this.multiModel)
+                        this.write_solution(out, sol, this.written+1);
+                    else
+                        try (OutputStream file = new BufferedOutputStream(new FileOutputStream(this.path + this.written + ".pdb"), 1 << 13)) {
+                            this.write_solution(file, sol, 0);
+                            this.write_record(file, "END");
+                        }
+
+                    this.written++;
+                }
+                catch(IOException e)
+                    {this.error = e;}
+            }
+
+            if(out != null) {
+                this.write_record(out, "END");
+                out.close();
+            }
+        }
+        catch(IOException e) {
+            if(this.error == null)
+                this.error = e;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //writes the atoms of a solution, first atom first, enclosed in MODEL and
+    //ENDMDL records unless model is 0
+    private void write_solution(OutputStream out, Node[] sol, int model) throws IOException {
+
+        if(model > 0) {
+            this.clear_line();
+            this.put_string("MODEL", 0, 6);
+            this.put_int(model, 10, 14);
+            out.write(this.line);
+        }
+
+        for(int i = sol.length-1; i >= 0; i--) {
+            this.encode_atom(sol[i].get_atom(), sol.length-1-i);
+            out.write(this.line);
+        }
+
+        if(model > 0)
+            this.write_record(out, "ENDMDL");
+    }
+
+    //writes a record that holds only its name
+    private void write_record(OutputStream out, String name) throws IOException {
+
+        this.clear_line();
+        this.put_string(name, 0, name.length());
+        out.write(this.line);
+    }
+
+    //encodes the ATOM record of an atom, which is the kth atom of the
+    //solution. columns are those of the PDB format, counted from 0.
+    private void encode_atom(Atom a, int k) {
+
+        //the model's atoms are numbered from 1 in file order
+        int m = a.get_index()-1;
+        boolean known = this.residues != null && m >= 0 && m < this.residues.get_size();
+
+        String name = a.get_name();
+
+        this.clear_line();
+        this.put_string("ATOM", 0, 6);
+        this.put_int(known ? this.residues.get_serial(m) : a.get_index(), 6, 11);
+
+        //names shorter than four characters begin in the second column of
+        //the name field, aligning the element symbols
+        this.put_string(name, name.length() < 4 ? 13 : 12, 16);
+
+        this.put_string(known ? this.residues.get_resName(m) : "UNK", 17, 20, true);
+        this.line[21] = (byte)(known ? this.residues.get_chainID(m) : 'A');
+        this.put_int(known ? this.residues.get_resSeq(m) : k/3 + 1, 22, 26);
+
+        this.put_fixed(a.get_xCoord(), 3, 30, 38);
+        this.put_fixed(a.get_yCoord(), 3, 38, 46);
+        this.put_fixed(a.get_zCoord(), 3, 46, 54);
+        this.put_fixed(1.0, 2, 54, 60);
+        this.put_fixed(0.0, 2, 60, 66);
+
+        //the element is the first letter of the name
+        for(int c = 0; c < name.length(); c++)
+            if(Character.isLetter(name.charAt(c))) {
+                this.line[77] = (byte)name.charAt(c);
+                break;
+            }
+    }
+
+    //fills the record with spaces
+    private void clear_line() {
+
+        for(int c = 0; c < RECORD; c++)
+            this.line[c] = ' ';
+    }
+
+    //writes a string left justified between columns from and to (exclusive)
+    private void put_string(String s, int from, int to)
+        {this.put_string(s, from, to, false);}
+
+    //writes a string between columns from and to (exclusive), right justified
+    //if right is set
+    private void put_string(String s, int from, int to, boolean right) {
+
+        int n = Math.min(s.length(), to-from);
+        int start = right ? to-n : from;
+
+        for(int c = 0; c < n; c++)
+            this.line[start+c] = (byte)s.charAt(c);
+    }
+
+    //writes an integer right justified, ending before column to
+    private void put_int(long value, int from, int to) {
+
+        boolean negative = value < 0;
+        long v = Math.abs(value);
+        int c = to;
+
+        do {
+            this.line[--c] = (byte)('0' + v%10);
+            v /= 10;
+        } while(v > 0 && c > from);
+
+        if(negative && c > from)
+            this.line[--c] = '-';
+    }
+
+    //writes a number rounded to the given number of decimals, right
+    //justified, ending before column to
+    private void put_fixed(double value, int decimals, int from, int to) {
+
+        long scaled = Math.round(Math.abs(value)*POWERS_OF_TEN[decimals]);
+        boolean negative = value < 0 && scaled != 0;
+        int c = to;
+
+        for(int d = 0; d < decimals; d++) {
+            this.line[--c] = (byte)('0' + scaled%10);
+            scaled /= 10;
+        }
+
+        this.line[--c] = '.';
+
+        do {
+            this.line[--c] = (byte)('0' + scaled%10);
+            scaled /= 10;
+        } while(scaled > 0 && c > from);
+
+        if(negative && c > from)
+            this.line[--c] = '-';
+    }
+
+    //getter for number of solutions written
+    public int get_written()
+        {return this.written;}
+}
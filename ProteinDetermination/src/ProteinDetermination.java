@@ -14,299 +14,928 @@ public class ProteinDetermination {
     //contains all solutions
     ArrayList<Node[]> solutions = new ArrayList<>();
     
+    //largest DME a node can have before its branch is pruned
+    double epsilon = .001;
+    
+    //number of threads used by the parallel solver, 1 runs sequentially
+    int threads = 1;
+    
+    //level at which the parallel solver splits the tree into subtrees
+    int splitLevel = 8;
+    
+    //if set, the backbone is also solved sequentially and in parallel and 
+    //the speedup is reported
+    boolean reportSpeedup = false;
+    
+    //if set, the tree is searched depth first and each solution is passed
+    //to the output consumer as soon as it is found
+    boolean depthFirst = false;
+    
+    //what is done with each solution: pdb writes each to its own file and 
+    //models writes all to one file, while count and score only apply in 
+    //depth first mode
+    String output = "pdb";
+    
+    //if set with -output models, the models written are read back and 
+    //checked against a level by level search
+    boolean verifyModels = false;
+    
+    //directory solution files are written to, ending in a separator, or the
+    //working directory if empty
+    String outputDir = "";
+    
+    //model the atoms were read from, which gives the residue of each atom
+    //when solutions are written
+    PdbModel residues = null;
+    
+    //largest distance, in Angstrom, kept as simulated NMR data
+    double cutoff = 5.000;
+    
+    //PDB file to read, the bundled 2ncs file if null, and the model used
+    String pdbPath = null;
+    int model = 1;
+    
+    //if set, only the left half of the tree is searched and the right half
+    //is produced by reflecting its solutions
+    boolean symmetric = false;
+    
+    //if set with symmetric, the reflected solutions aren't produced
+    boolean oneEnantiomer = false;
+    
+    //if set, nodes are pruned by the bounds of each restraint rather than by
+    //their DME, the bounds being the distance plus or minus the tolerance
+    boolean intervalPrune = false;
+    double intervalTolerance = 0;
+    
+    //file the search is checkpointed to and resumed from, none if null, and
+    //the least time between two checkpoints of the depth first search
+    String checkpointPath = null;
+    long checkpointInterval = 1000;
+    
+    //largest RMSD between solutions collapsed into one cluster, only one 
+    //solution of each cluster being kept, or negative if they aren't 
+    //clustered
+    double clusterTolerance = -1;
+    
+    //number of backbone atoms placed, or every atom of the backbone if 
+    //fullLength is set
+    int atoms = 20;
+    boolean fullLength = false;
+    
+    //if set, the level by level search switches to depth first once its 
+    //frontier holds more than frontierLimit nodes or its arena fills half the
+    //memory budget, and stops once the time budget (0 for none) is reached
+    boolean budgeted = false;
+    int frontierLimit = 1 << 16;
+    long memoryBudget = Runtime.getRuntime().maxMemory()/4*3;
+    long timeBudget = 0;
+    
+    //the last of -frontier and -memory given, which only the level by level
+    //and best first searches can honour
+    String spaceOption = null;
+    
+    //if beamWidth is above 0, only the best structures are searched for, by
+    //their DME: the beamWidth best nodes of each level are kept, or if 
+    //bestFirst is set the best node of the tree is expanded next until 
+    //beamWidth structures are found, from a queue of at most queueLimit 
+    //nodes. nodes of equal DME are ranked by the ties rule.
+    int beamWidth = 0;
+    boolean bestFirst = false;
+    int queueLimit = 1 << 16;
+    String ties = BeamSearch.TIES_LEFT;
+    
+    //where the nodes of the tree are kept: heap, direct for direct buffers
+    //outside the heap, or mapped for a memory-mapped scratch file, which is
+    //created in scratchDir or the temporary directory if it's null
+    String arenaKind = "heap";
+    String scratchDir = null;
+    
+    //if set, the search metrics are printed at the end of the run
+    boolean printMetrics = false;
+    
+    //if set, flight recorder events are emitted for each level and prune
+    boolean jfrEvents = false;
+    
+    //records the work done by the search, null unless metrics are printed
+    //or events are emitted
+    SearchMetrics metrics = null;
+    
+    //torsion matrices of every level, computed before the search
+    TorsionTable torsions = null;
+    
+    //if set, the atoms are placed in the order chosen by AtomOrdering rather
+    //than in the order of the backbone, which is only allowed with interval
+    //pruning, and the ordering once chosen
+    boolean reorder = false;
+    AtomOrdering ordering = null;
+    
+    //if set, the atoms of each residue left out of the backbone are placed
+    //as well, each residue being solved on its own before the backbone, and
+    //the solver holding the solutions of every residue
+    boolean placeSideChains = false;
+    SideChainSolver sideChains = null;
+    
     public static void main(String[] args) {
         
         ProteinDetermination pd = new ProteinDetermination();
+        pd.parse_args(args);
+        
+        String unsupported = pd.find_unsupported();
+        if(unsupported != null) {
+            System.out.println(unsupported);
+            return;
+        }
         
         //this block of code simulates NMR results by taking a PDB file and 
         //extracting the coordinates for each atom, and then calculating the 
         //distance from every atom to every other atom, given the constraint that
-        //each distance can not exceed 5 Angstrom, essentially creating 
+        //each distance can not exceed the cutoff (5 Angstrom unless given 
+        //with -cutoff), essentially creating 
         //a set of sparse pairwise data. the results of this block of code is an
         //AL of distance objects that contain a distance between two atoms.
         DistanceData d = new DistanceData();
         
-        //reads PDB file and creates an AL of atoms
-        d.read_atoms_from_file();
+        RestraintIndex restraints;
+        
+        //reads PDB file and creates an AL of atoms. data that can't be used
+        //ends the run before the search.
+        try {
+            
+            if(pd.pdbPath == null)
+                d.read_atoms_from_file(pd.model);
+            else
+                d.read_atoms_from_file(pd.pdbPath, pd.model);
+            
+            d.get_reader().print_throughput();
+            pd.residues = d.get_model();
+            
+            restraints = pd.prepare_data(d);
+        }
+        catch(IllegalArgumentException | UncheckedIOException e) {
+            System.out.println("Couldn't prepare the data: " + e.getMessage());
+            return;
+        }
+        
+        d.print_footprint();
+        
+        //constructs the protein backbone
+        pd.construct_proteinBB(pd.get_bonds(d), restraints);
+    }
+    
+    //prepares the distance data read from a PDB file for the search: keeps
+    //the protein backbone, simulates the NMR data, computes the torsion 
+    //matrices of every level, and returns the backbone distances used for 
+    //pruning indexed by backbone atom.
+    RestraintIndex prepare_data(DistanceData d) {
         
         //takes the AL of atoms from PDB file and copies only protein backbone
         d.only_proteinBackbone();
         
         //computes pairwise distance data for all atoms
-        d.set_pairwise_distances(d.calculate_pairwiseDistances(d.get_all_atoms()));
+        d.set_cutoff(this.cutoff);
+        d.set_pairwise_distances(d.find_pairs(d.get_all_atoms()));
         
         //computes pairwise data for protein backbone only
-        d.set_pairwisePBB(d.calculate_pairwiseDistances(d.get_onlyPBB()));
+        d.set_pairwisePBB(d.find_pairs(d.get_onlyPBB()));
+        
+        //computes the torsion matrices of every level from the backbone data
+        this.torsions = new TorsionTable(d.get_pairwisePBB_pairs(), d.get_onlyPBB().size());
         
         //takes protein backbone atoms and creates an AL of distances to 
         //represent covalent bonds between sequential atoms
         d.generate_covalentPBB_distances(d.get_onlyPBB());
         
-        //constructs the protein backbone
-        pd.construct_proteinBB(d.get_covalentPBB(), d.get_covalentPBB());
+        //simulated distances are exact, so bounds are made around them
+        if(this.intervalPrune)
+            d.get_pairwisePBB_pairs().set_bounds((float)this.intervalTolerance);
+        
+        //indexes the backbone distances used for pruning by backbone atom. 
+        //the covalent bonds alone can't prune, since every level places its
+        //atom at exactly the length of its bond.
+        RestraintIndex restraints = d.get_pairwisePBB_pairs().to_restraintIndex(d.get_onlyPBB().size());
+        
+        //the residues don't depend on the backbone, so they're solved first
+        if(this.placeSideChains)
+            this.solve_sideChains(d);
+        
+        if(this.reorder)
+            return this.order_atoms(d, restraints);
+        
+        return restraints;
     }
     
-    //the purpose of this method is to construct the backbone of the protein. 
-    //this method will later be used to contruct the backbone for each amino 
-    //acid side chain.
-    private void construct_proteinBB(ArrayList<Distance> covalentDistances, ArrayList<Distance> backbonePWDistances) {
+    //chooses the order the atoms placed are placed in, and returns the 
+    //restraints and sets the torsion matrices of the backbone in that order.
+    //an order may place atoms that can't be placed in the original order,
+    //so every atom asked for is tried before only those the original order
+    //can place. the original order is kept if some atom can't be placed.
+    private RestraintIndex order_atoms(DistanceData d, RestraintIndex restraints) {
         
-        ProteinDetermination pd = new ProteinDetermination();
+        int wanted = this.find_lastLevel(d.get_covalentPBB().size()+1);
+        int lastLevel = this.find_lastLevel(d.get_covalentPBB());
         
-        //used to initialize the backbone, using the first two distances 
-        //that is comprised of the first three atoms.
-        Clique c = new Clique(1, covalentDistances.get(0), covalentDistances.get(1));
+        if(wanted <= 3)
+            return restraints;
         
-        //initializes the protein tree now that the first clique is created,
-        //which includes fixing the first three atoms spatial orientation.
-        ProteinTree pt = new ProteinTree(c);
-        pt.print_first3();
+        AtomOrdering ao = new AtomOrdering(restraints, wanted);
         
-        //for each "moment", assign an atom to a new node and then append that
-        //node on the backbone tree. the i index represents the number of atoms
-        //that are added to the backbone, the k index represents the kth 
-        //potential position for that atom.
-        for(int i = 0; i < /*covalentDistances.size()*/17; i++) {
-            for(int k = 0; k < Math.pow(2, i+1); k++)
-                pd.place_atom(pt.get_node3(), covalentDistances, backbonePWDistances, i+3);  
-          
-            System.out.println("Atom #"+ (i+4) + " is now being placed...");
+        if(!ao.is_complete() && lastLevel < wanted && lastLevel > 3)
+            ao = new AtomOrdering(restraints, lastLevel);
+        
+        if(!ao.is_complete()) {
+            System.out.println("Couldn't order every atom, placing them in their original order.");
+            return restraints;
         }
         
-       System.out.println();
-       generate_solutions(pt.get_node1(), backbonePWDistances, 20/*covalentDistances.size()*/);
-       this.print_solutions();
+        ao.print_summary();
+        
+        this.ordering = ao;
+        this.torsions = ao.to_torsionTable();
+        
+        return ao.to_restraintIndex(this.intervalPrune ? (float)this.intervalTolerance : 0);
     }
     
-    //prints all solutions from solutions AL
-    public void print_solutions() {
-
-        int k = 0;
-        for(Node[] sol : this.solutions) {
+    //solves the atoms of every residue left out of the backbone, one task per
+    //residue, on as many threads as the backbone is solved with or else on
+    //every core. a caller running on a pool, such as BatchDriver, has the
+    //residues solved on its pool instead.
+    private void solve_sideChains(DistanceData d) {
+        
+        int t = this.threads > 1 ? this.threads : Runtime.getRuntime().availableProcessors();
+        
+        this.sideChains = new SideChainSolver(this, d, t);
+        this.sideChains.solve();
+        this.sideChains.shutdown();
+        this.sideChains.print_summary();
+    }
+    
+    //the bonds between the atoms of consecutive levels, which are those of
+    //the backbone unless the atoms were ordered
+    ArrayList<Distance> get_bonds(DistanceData d)
+        {return this.ordering == null ? d.get_covalentPBB() : this.ordering.to_bonds(d.get_onlyPBB());}
+    
+    //reads the command line options, which the README lists as well, so an
+    //option added here is added there too:
+    //  -threads n    solve with n threads on a work-stealing pool
+    //  -split level  level at which the parallel solver splits the tree
+    //  -speedup      report the speedup of the parallel solver
+    //  -dfs          search depth first, streaming each solution to the output
+    //  -output kind  what to do with solutions: pdb, models, count or score
+    //  -verify       check the models written against a level by level search
+    //  -cutoff d     largest distance kept as simulated NMR data
+    //  -pdb path     PDB file to read instead of the bundled 2ncs file
+    //  -model k      model of the PDB file to use
+    //  -symmetric    search half of the tree and reflect its solutions
+    //  -enantiomer   with -symmetric, only give the solutions searched
+    //  -interval tol prune by restraint bounds of the distance +- tol
+    //  -checkpoint f save the search to file f, resuming from it if it exists
+    //  -every ms     least time between depth first checkpoints
+    //  -cluster rmsd keep one solution of each cluster within the RMSD
+    //  -atoms n      number of backbone atoms to place (20 unless given)
+    //  -full         place every atom of the backbone
+    //  -frontier n   search depth first once the frontier exceeds n nodes
+    //  -memory mb    memory budget of the search, in megabytes
+    //  -time s       time budget of the search, in seconds, which -dfs 
+    //                honours too. none of the three are supported with 
+    //                -threads, nor -frontier and -memory with -dfs
+    //  -order        with -interval, place the atoms in the order that prunes
+    //                earliest. this is a different search, whose atoms are
+    //                placed from different distances, so its solutions 
+    //                aren't those of the backbone's order
+    //  -sidechains   place the other atoms of each residue as well
+    //  -beam k       keep the k best nodes of each level by DME
+    //  -bestfirst k  find the k best structures, best node first
+    //  -queue n      most nodes held by the best first queue
+    //  -ties rule    rank nodes of equal DME: left, right or a seed
+    //  -arena kind   keep the nodes on the heap, in direct buffers or in a
+    //                mapped scratch file: heap, direct or mapped. direct
+    //                buffers are bounded by -XX:MaxDirectMemorySize, which
+    //                defaults to the heap size, so only a mapped arena can
+    //                grow wider than the heap
+    //  -scratch dir  directory the mapped scratch file is created in
+    //  -metrics      print per level search metrics at the end of the run
+    //  -jfr          emit flight recorder events for each level and prune
+    void parse_args(String[] args) {
+        
+        for(int i = 0; i < args.length; i++) {
             
-                System.out.println(k);
-
-                try {
-                    try (PrintWriter writer = new PrintWriter("solution"+Integer.toString(k++)+".pdb", "UTF-8")) {
-                        
-                        for(int i = sol.length-1; i >= 0; i--) {
-
-                            //my failed attempt at formatting similiar to that
-                            //of a PDB file
-                            writer.println("ATOM" + 
-                                            String.format("%1$6s", sol[i].get_atom().get_index())+ 
-                                                String.format("%1$4s",sol[i].get_atom().get_name()) + "                 " +
-                                                String.format("%.4f  ", sol[i].get_atom().get_xCoord()) + 
-                                                    String.format("%.4f  ", sol[i].get_atom().get_yCoord()) +
-                                                        String.format("%.4f", sol[i].get_atom().get_zCoord()));
-                        }
-                        writer.close();
-                    }
-                } 
-                catch (IOException e) {}
+            if(args[i].equals("-threads") && i+1 < args.length)
+                this.threads = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-split") && i+1 < args.length)
+                this.splitLevel = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-speedup"))
+                this.reportSpeedup = true;
+            else
+            if(args[i].equals("-dfs"))
+                this.depthFirst = true;
+            else
+            if(args[i].equals("-output") && i+1 < args.length)
+                this.output = args[++i];
+            else
+            if(args[i].equals("-verify"))
+                this.verifyModels = true;
+            else
+            if(args[i].equals("-cutoff") && i+1 < args.length)
+                this.cutoff = Double.parseDouble(args[++i]);
+            else
+            if(args[i].equals("-pdb") && i+1 < args.length)
+                this.pdbPath = args[++i];
+            else
+            if(args[i].equals("-model") && i+1 < args.length)
+                this.model = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-symmetric"))
+                this.symmetric = true;
+            else
+            if(args[i].equals("-enantiomer"))
+                this.oneEnantiomer = true;
+            else
+            if(args[i].equals("-interval") && i+1 < args.length) {
+                this.intervalPrune = true;
+                this.intervalTolerance = Double.parseDouble(args[++i]);
+            }
+            else
+            if(args[i].equals("-checkpoint") && i+1 < args.length)
+                this.checkpointPath = args[++i];
+            else
+            if(args[i].equals("-every") && i+1 < args.length)
+                this.checkpointInterval = Long.parseLong(args[++i]);
+            else
+            if(args[i].equals("-cluster") && i+1 < args.length)
+                this.clusterTolerance = Double.parseDouble(args[++i]);
+            else
+            if(args[i].equals("-atoms") && i+1 < args.length)
+                this.atoms = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-full"))
+                this.fullLength = this.budgeted = true;
+            else
+            if(args[i].equals("-frontier") && i+1 < args.length) {
+                this.frontierLimit = Integer.parseInt(args[++i]);
+                this.budgeted = true;
+                this.spaceOption = "-frontier";
+            }
+            else
+            if(args[i].equals("-memory") && i+1 < args.length) {
+                this.memoryBudget = Long.parseLong(args[++i]) << 20;
+                this.budgeted = true;
+                this.spaceOption = "-memory";
+            }
+            else
+            if(args[i].equals("-time") && i+1 < args.length) {
+                this.timeBudget = (long)(Double.parseDouble(args[++i])*1e9);
+                this.budgeted = true;
+            }
+            else
+            if(args[i].equals("-order"))
+                this.reorder = true;
+            else
+            if(args[i].equals("-sidechains"))
+                this.placeSideChains = true;
+            else
+            if(args[i].equals("-beam") && i+1 < args.length)
+                this.beamWidth = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-bestfirst") && i+1 < args.length) {
+                this.beamWidth = Integer.parseInt(args[++i]);
+                this.bestFirst = true;
+            }
+            else
+            if(args[i].equals("-queue") && i+1 < args.length)
+                this.queueLimit = Integer.parseInt(args[++i]);
+            else
+            if(args[i].equals("-ties") && i+1 < args.length)
+                this.ties = args[++i];
+            else
+            if(args[i].equals("-arena") && i+1 < args.length)
+                this.arenaKind = args[++i];
+            else
+            if(args[i].equals("-scratch") && i+1 < args.length)
+                this.scratchDir = args[++i];
+            else
+            if(args[i].equals("-metrics"))
+                this.printMetrics = true;
+            else
+            if(args[i].equals("-jfr"))
+                this.jfrEvents = true;
+            else
+                System.out.println("Unknown option: " + args[i]);
         }
     }
     
-    //generates all solutions
-    public void generate_solutions(Node n, ArrayList<Distance> nmr, int i) {
+    //the budgets are only honoured by some of the searches: the depth first
+    //search keeps only its current path, so it stops at the time budget but
+    //has no use for a frontier or memory budget, while the parallel solver
+    //takes none of them. the order of the atoms is only chosen for interval
+    //pruning, see AtomOrdering. returns why the options given can't be run
+    //together, or null if they can.
+    String find_unsupported() {
+        
+        if(this.reorder && !this.intervalPrune)
+            return "The DME of each partial structure depends on the order of the atoms, so -order is only supported with -interval.";
+        
+        if(this.depthFirst && this.spaceOption != null)
+            return "The depth first search only keeps its current path, so " + this.spaceOption + " isn't supported with -dfs.";
+        
+        if(!this.depthFirst && this.beamWidth == 0 && this.threads > 1 && (this.spaceOption != null || this.timeBudget > 0))
+            return "The parallel solver isn't budgeted, so " + (this.spaceOption != null ? this.spaceOption : "-time") + " isn't supported with -threads.";
+        
+        return null;
+    }
     
-        PruneTree pt;
+    //the purpose of this method is to construct the backbone of the protein,
+    //and with -sidechains to place the residues solved beforehand on each of
+    //its solutions.
+    private void construct_proteinBB(ArrayList<Distance> covalentDistances, RestraintIndex backbonePWDistances) {
         
-        if(n.get_index()==i) {
+        int lastLevel = this.find_lastLevel(covalentDistances);
         
-            pt = new PruneTree(n, nmr);
-            pt.calculate_DME();
-            System.out.println((double)pt.get_DME());
-            Node nn = n;
-            Node[] sol = new Node[i];
+        if(this.ordering == null && lastLevel < this.find_lastLevel(covalentDistances.size()+1))
+            System.out.println("Distances missing to place atom #" + (lastLevel+1) + ", placing " + lastLevel + " atoms.");
+        
+        if(this.printMetrics || this.jfrEvents)
+            this.metrics = new SearchMetrics(lastLevel, this.jfrEvents);
+        
+        ProteinTree pt = this.create_tree(covalentDistances);
+        pt.print_first3();
+        
+        System.out.println("Atoms #4 to #" + lastLevel + " are now being placed...");
+        System.out.println();
+        
+        Checkpoint cp = this.open_checkpoint(lastLevel, covalentDistances, backbonePWDistances);
+        
+        //the search begins below the third (fixed) node, or below the left
+        //child of it when only half of the tree is searched, or from the 
+        //deepest level that was checkpointed
+        int root = pt.get_node3();
+        int rootLevel = 3;
+        int[] frontier = new int[]{root};
+        
+        if(cp != null && cp.is_resumed()) {
             
-            int k = 0;
-            while(nn != null) { 
-                
-                sol[k] = nn;
-                nn = nn.get_parent();
-                k++;
-            }
-            this.solutions.add(sol);
+            rootLevel = cp.restore_levels(pt, this, covalentDistances);
+            frontier = cp.get_frontier();
+            root = frontier.length > 0 ? frontier[0] : -1;
+            System.out.println("Resuming from " + this.checkpointPath + (cp.has_stack() ? "" : " at level " + rootLevel));
+            System.out.println();
+        }
+        else
+        if(this.symmetric) {
+            root = new SymmetricSearch(this).expand_half(pt, covalentDistances, backbonePWDistances);
+            rootLevel = 4;
+            frontier = root >= 0 ? new int[]{root} : new int[0];
+            
+            if(cp != null)
+                cp.write_level(pt.get_arena(), new int[]{pt.get_node3()}, frontier, rootLevel);
         }
-        else { 
         
-            if(n.get_leftChild() != null && !n.get_leftChild().get_stop())
-                this.generate_solutions(n.get_leftChild(), nmr, i);
+        if(this.beamWidth > 0) {
             
-            if(n.get_rightChild() != null && !n.get_rightChild().get_stop())
-                this.generate_solutions(n.get_rightChild(), nmr, i);
-            }     
+            //only the best structures are kept, in order of increasing DME
+            BeamSearch bs = this.create_beam();
+            if(root >= 0)
+                this.solutions.addAll(bs.solve(pt, frontier, rootLevel, lastLevel, covalentDistances, backbonePWDistances));
+            bs.print_summary(lastLevel, this.solutions.size());
         }
+        else
+        if(this.depthFirst) {
+            
+            //only the current path is kept, solutions are never collected
+            SolutionConsumer consumer = this.create_consumer();
+            if(this.sideChains != null)
+                consumer = new SideChainSolver.CompletingConsumer(consumer, this.sideChains);
+            if(this.ordering != null)
+                consumer = new AtomOrdering.MappingConsumer(consumer, this.ordering);
+            if(this.symmetric)
+                consumer = new SymmetricSearch.MirroringConsumer(consumer, this.oneEnantiomer);
+            
+            DepthFirstSearch dfs = new DepthFirstSearch(this);
+            if(this.timeBudget > 0)
+                dfs.set_deadline(System.nanoTime() + this.timeBudget);
+            if(root >= 0)
+                dfs.search(pt, root, rootLevel, lastLevel, covalentDistances, backbonePWDistances, consumer, cp);
+            consumer.finish();
+            
+            //a stopped search is saved where it stopped, so it can be resumed
+            if(dfs.was_stopped())
+                System.out.println("Time budget reached, the depth first search stopped before it finished" + (cp != null ? " and can be resumed from " + this.checkpointPath : "") + ".");
+        }
+        else
+        if(this.threads > 1) {
+            
+            ParallelSolver ps = new ParallelSolver(this, this.threads, this.splitLevel);
+            if(root >= 0)
+                this.solutions.addAll(ps.solve(pt, root, rootLevel, covalentDistances, backbonePWDistances, lastLevel));
+            ps.shutdown();
+        }
+        else
+        if(this.budgeted) {
+            
+            HybridSolver hs = new HybridSolver(this, this.frontierLimit, this.memoryBudget, this.timeBudget);
+            this.solutions.addAll(hs.solve(pt, frontier, rootLevel, lastLevel, covalentDistances, backbonePWDistances, cp));
+            hs.print_summary(lastLevel, this.solutions.size());
+        }
+        else {
+            
+            //the frontier holds every live node of the deepest level, 
+            //beginning with the root.
+            frontier = this.solve_levels(pt, frontier, rootLevel, lastLevel, covalentDistances, backbonePWDistances, cp);
+            generate_solutions(pt.get_arena(), frontier, backbonePWDistances, lastLevel);
+        }
+        
+        if(cp != null)
+            cp.close();
+        
+        if(this.symmetric && !this.depthFirst)
+            this.solutions = SymmetricSearch.with_mirrors(this.solutions, this.oneEnantiomer);
+        
+        //solutions are given in the original order of the atoms
+        if(this.ordering != null && !this.depthFirst)
+            this.solutions = this.ordering.map_solutions(this.solutions);
+        
+        //the residues are placed on every solution of the backbone
+        if(this.sideChains != null && !this.depthFirst)
+            this.solutions = this.sideChains.complete_all(this.solutions);
+        
+        //near duplicates are collapsed on every core before being written
+        if(this.clusterTolerance >= 0 && !this.depthFirst) {
+            
+            SolutionClusterer sc = new SolutionClusterer(this.clusterTolerance, Runtime.getRuntime().availableProcessors());
+            this.solutions = sc.cluster(this.solutions);
+            sc.print_summary();
+            sc.shutdown();
+        }
+        
+        //streamed solutions were written as they were found
+        if(!this.depthFirst)
+            this.print_solutions();
+        
+        pt.get_arena().print_footprint();
+        this.close_arena(pt.get_arena());
+        
+        if(this.printMetrics)
+            this.metrics.print_summary();
+        
+        //the timing runs below aren't recorded
+        this.metrics = null;
+        
+        if(this.reportSpeedup)
+            this.report_speedup(covalentDistances, backbonePWDistances, lastLevel);
+        
+        if(this.verifyModels && this.output.equals("models"))
+            this.verify_models(covalentDistances, backbonePWDistances, lastLevel);
+    }
     
-    //searches for a node that is the same level as the should-be parent, one
-    //that also doesn't already have children, and adds the new node (atom)
-    //as a child to that node.
-    public void place_atom(Node currNode, ArrayList<Distance> covDistances, ArrayList<Distance> backbonePWDistances, int i) {
+    //the deepest level of the tree, which is the number of atoms placed.
+    //the backbone has one more atom than it has bonds, and atoms whose 
+    //neighbours are further apart than the cutoff can't be placed. once the
+    //atoms are ordered, every level of the order is placed.
+    int find_lastLevel(ArrayList<Distance> covalentDistances) {
         
-        ProteinTree pt = new ProteinTree();
-
-        if(currNode.get_index() < i && !currNode.get_stop()) {
-
-            if(!currNode.get_leftChild().get_stop())
-                place_atom(currNode.get_leftChild(), covDistances, backbonePWDistances, i);
+        if(this.ordering != null)
+            return this.ordering.get_levels();
+        
+        return Math.min(this.find_lastLevel(covalentDistances.size()+1), this.torsions.get_levels());
+    }
+    
+    //the number of atoms placed from a backbone of the given number of 
+    //atoms, were every distance known
+    private int find_lastLevel(int backboneAtoms)
+        {return this.fullLength ? backboneAtoms : Math.min(this.atoms, backboneAtoms);}
+    
+    //creates the beam or best first search asked for
+    private BeamSearch create_beam() {
+        
+        if(this.bestFirst)
+            return new BeamSearch(this, this.beamWidth, this.ties, this.queueLimit, this.memoryBudget, this.timeBudget);
+        
+        return new BeamSearch(this, this.beamWidth, this.ties);
+    }
+    
+    //creates the consumer that streamed solutions are passed to
+    private SolutionConsumer create_consumer() {
+        
+        if(this.output.equals("count"))
+            return new SolutionCounter();
+        
+        if(this.output.equals("score"))
+            return new SolutionScorer();
+        
+        return this.create_writer();
+    }
+    
+    //creates the writer that solutions are written to PDB files by
+    PdbWriter create_writer() {
+        
+        if(this.output.equals("models"))
+            return new PdbWriter(this.outputDir + "solutions.pdb", true, this.residues, 256);
+        
+        return new PdbWriter(this.outputDir + "solution", false, this.residues, 256);
+    }
+    
+    //initializes the protein tree using the first two distances, that is 
+    //comprised of the first three atoms, which includes fixing the first
+    //three atoms spatial orientation.
+    public ProteinTree create_tree(ArrayList<Distance> covalentDistances) {
+        
+        Clique c = new Clique(1, covalentDistances.get(0), covalentDistances.get(1));
+        
+        return new ProteinTree(c, this.create_arena());
+    }
+    
+    //creates the empty arena the nodes of the tree are kept in, of the kind
+    //given with -arena. the nodes are kept on the heap if the scratch file 
+    //can't be created.
+    NodeArena create_arena() {
+        
+        if(this.arenaKind.equals("direct"))
+            return new OffHeapArena(1024);
+        
+        if(this.arenaKind.equals("mapped")) {
+            
+            try {
+                return new OffHeapArena(1024, this.scratchDir == null ? null : new File(this.scratchDir));
+            }
+            catch(IOException e) {
+                System.out.println("Couldn't create scratch file, keeping nodes on the heap: " + e.getMessage());
+            }
+        }
+        else
+        if(!this.arenaKind.equals("heap"))
+            System.out.println("Unknown arena: " + this.arenaKind + ", keeping nodes on the heap");
+        
+        return new NodeArena(1024);
+    }
+    
+    //releases the buffers of an arena kept off the heap, and deletes its 
+    //scratch file if it has one. the arena can't be used afterwards.
+    void close_arena(NodeArena arena) {
+        
+        if(!(arena instanceof OffHeapArena))
+            return;
+        
+        try {
+            ((OffHeapArena)arena).close();
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't delete scratch file: " + e.getMessage());
+        }
+    }
+    
+    //for each "moment", every node of the frontier is expanded once into 
+    //its two potential positions for the next atom, and the children that
+    //survive pruning become the frontier of the next level. the frontier 
+    //given sits at level from, and the frontier returned sits at level to.
+    public int[] solve_levels(ProteinTree pt, int[] frontier, int from, int to, ArrayList<Distance> covDistances, RestraintIndex backbonePWDistances)
+        {return this.solve_levels(pt, frontier, from, to, covDistances, backbonePWDistances, null);}
+    
+    //solves the levels as above, appending each finished level to the 
+    //checkpoint if it isn't null.
+    public int[] solve_levels(ProteinTree pt, int[] frontier, int from, int to, ArrayList<Distance> covDistances, RestraintIndex backbonePWDistances, Checkpoint cp) {
+        
+        for(int level = from; level < to; level++) {
+            
+            int[] next = this.expand_frontier(pt, frontier, level, covDistances, backbonePWDistances);
             
-            if(currNode.get_rightChild() != null && !currNode.get_rightChild().get_stop())
-                place_atom(currNode.get_rightChild(), covDistances, backbonePWDistances, i);
+            if(cp != null)
+                cp.write_level(pt.get_arena(), frontier, next, level+1);
             
+            frontier = next;
+        }
+        
+        return frontier;
+    }
+    
+    //opens the checkpoint of the search, reading the state to resume from if
+    //the file holds one. returns null if the search isn't checkpointed.
+    private Checkpoint open_checkpoint(int lastLevel, ArrayList<Distance> covalentDistances, RestraintIndex backbonePWDistances) {
+        
+        if(this.checkpointPath == null)
+            return null;
+        
+        if(this.threads > 1 && !this.depthFirst) {
+            System.out.println("The parallel solver isn't checkpointed.");
+            return null;
+        }
+        
+        if(this.beamWidth > 0) {
+            System.out.println("The beam search isn't checkpointed.");
+            return null;
         }
+        
+        Checkpoint cp = new Checkpoint(this.checkpointPath, this.checkpointInterval);
+        long fingerprint = Checkpoint.fingerprint(backbonePWDistances, covalentDistances, this.epsilon, this.intervalPrune);
+        
+        try {
+            cp.open(lastLevel, this.depthFirst ? Checkpoint.DEPTH_FIRST : this.budgeted ? Checkpoint.HYBRID : Checkpoint.LEVELS, this.symmetric, fingerprint);
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't open checkpoint: " + e.getMessage());
+            return null;
+        }
+        
+        return cp;
+    }
+    
+    //solves the backbone sequentially and then in parallel, and prints the
+    //time taken by each along with whether their solutions agree.
+    private void report_speedup(ArrayList<Distance> covalentDistances, RestraintIndex backbonePWDistances, int lastLevel) {
+        
+        long start = System.nanoTime();
+        ProteinTree pt = this.create_tree(covalentDistances);
+        int[] leaves = this.solve_levels(pt, new int[]{pt.get_node3()}, 3, lastLevel, covalentDistances, backbonePWDistances);
+        ArrayList<Node[]> sequential = new ArrayList<>();
+        for(int n : leaves)
+            sequential.add(pt.get_arena().extract_solution(n, lastLevel));
+        double sequentialTime = (System.nanoTime() - start)/1e6;
+        this.close_arena(pt.get_arena());
+        
+        ParallelSolver ps = new ParallelSolver(this, Math.max(this.threads, 2), this.splitLevel);
+        start = System.nanoTime();
+        pt = this.create_tree(covalentDistances);
+        ArrayList<Node[]> parallel = ps.solve(pt, covalentDistances, backbonePWDistances, lastLevel);
+        double parallelTime = (System.nanoTime() - start)/1e6;
+        ps.shutdown();
+        this.close_arena(pt.get_arena());
+        
+        System.out.println("PARALLEL SPEEDUP");
+        System.out.println("threads:          " + Math.max(this.threads, 2));
+        System.out.println("split level:      " + this.splitLevel);
+        System.out.println("sequential (ms):  " + String.format("%.3f", sequentialTime));
+        System.out.println("parallel (ms):    " + String.format("%.3f", parallelTime));
+        System.out.println("speedup:          " + String.format("%.2f", sequentialTime/parallelTime));
+        System.out.println("same solutions:   " + ParallelSolver.same_solutions(sequential, parallel));
+        System.out.println();
+    }
+    
+    //reads back the models written to solutions.pdb and prints whether they
+    //are, in order, the solutions of a level by level search of the same 
+    //tree to the 3 decimals written. the solutions aren't clustered.
+    private void verify_models(ArrayList<Distance> covalentDistances, RestraintIndex backbonePWDistances, int lastLevel) {
+        
+        ProteinTree pt = this.create_tree(covalentDistances);
+        int[] leaves = this.solve_levels(pt, new int[]{pt.get_node3()}, 3, lastLevel, covalentDistances, backbonePWDistances);
+        ArrayList<Node[]> expected = new ArrayList<>();
+        for(int n : leaves)
+            expected.add(pt.get_arena().extract_solution(n, lastLevel));
+        this.close_arena(pt.get_arena());
+        
+        if(this.ordering != null)
+            expected = this.ordering.map_solutions(expected);
+        if(this.sideChains != null)
+            expected = this.sideChains.complete_all(expected);
+        
+        //a symmetric search may give only the left half, and streams each
+        //solution of it followed by its mirror, which is the matching 
+        //solution of the right half counted from the end
+        if(this.symmetric && this.oneEnantiomer)
+            expected = new ArrayList<>(expected.subList(0, expected.size()/2));
         else
-        if(currNode.get_index() == i && !currNode.get_checked() && !currNode.get_stop()) {
+        if(this.depthFirst && this.symmetric) {
             
-            if(currNode.get_rightChild()==null) {
-
-                Clique[] moment = this.create_moment(currNode, covDistances.get(i-1));
-                
-                Node newNode = pt.create_nodei(currNode, covDistances.get(i).get_atom1().get_index(), moment[0], moment[1]);
-
-                if(currNode.get_leftChild()==null) {
-
-                    currNode.set_leftChild(newNode);
-                    System.out.println("::NEWLY ADDED ATOM::");
-                    System.out.println("Added to the left!");
-                    System.out.println("parentNodeLevel: "+ currNode.get_index());
-                    System.out.println("parentNodeAtom: " + currNode.get_atom().get_name());
-                    newNode.get_atom().getATOMinfo();
-                    newNode.print_cTorsionMatrix();
-                }
-                else {
-                    
-                    currNode.set_rightChild(newNode); 
-                   System.out.println("::NEWLY ADDED ATOM::");
-                    System.out.println("Added to the right!");
-                    System.out.println("parentNodeLevel: "+ currNode.get_index());
-                   System.out.println("parentNodeAtom: " + currNode.get_atom().get_name());
-                   newNode.get_atom().getATOMinfo();
-                    newNode.print_cTorsionMatrix();
-                }                   
+            ArrayList<Node[]> paired = new ArrayList<>(expected.size());
+            for(int k = 0; k < expected.size()/2; k++) {
+                paired.add(expected.get(k));
+                paired.add(expected.get(expected.size()-1-k));
             }
+            expected = paired;
+        }
+        
+        ArrayList<PdbModel> models;
+        
+        try {
+            models = new PdbReader().read(this.outputDir + "solutions.pdb");
+        }
+        catch(IOException e) {
+            System.out.println("Couldn't read the models written: " + e.getMessage());
+            return;
+        }
+        
+        boolean same = models.size() == expected.size();
+        
+        for(int k = 0; same && k < models.size(); k++) {
             
-            //if the current node has no children
-            if(currNode.get_leftChild() != null && 
-                        currNode.get_rightChild() != null) {
-                
-                double dme1, dme2;
-                PruneTree prune1, prune2;
-                double epsilon = .001;
-                
-                //left child DME
-                prune1 = new PruneTree(currNode.get_leftChild(), backbonePWDistances);
-                prune1.generate_solutionPWDistances();
-                prune1.calculate_DME();
-                dme1 = prune1.get_DME();
-                
-                //right child DME
-                prune2 = new PruneTree(currNode.get_rightChild(), backbonePWDistances);
-                prune2.generate_solutionPWDistances();
-                prune2.calculate_DME();
-                dme2 = prune2.get_DME();
-                
-                //prunes the left branch
-                if(dme1 > epsilon) {
-                    currNode.get_leftChild().set_stop(true);
-                    System.out.println("DME1: "+ dme1);
-                    System.out.println("left branch trimmed");
-                }
-                
-                //prunes the right branch
-                if (dme2 > epsilon) {
-                    currNode.get_rightChild().set_stop(true);
-                    System.out.println("DME2: "+ dme2);
-                    System.out.println("right branch trimmed");
-                }
+            PdbModel m = models.get(k);
+            Node[] sol = expected.get(k);
+            same = m.get_size() == sol.length;
+            
+            //the deepest atom of a solution is its first element but is 
+            //written last
+            for(int i = 0; same && i < sol.length; i++) {
                 
-                currNode.set_checked(true);
+                Atom a = sol[sol.length-1-i].get_atom();
+                same = Math.abs(m.get_x(i) - a.get_xCoord()) < 1e-3 &&
+                       Math.abs(m.get_y(i) - a.get_yCoord()) < 1e-3 &&
+                       Math.abs(m.get_z(i) - a.get_zCoord()) < 1e-3;
             }
         }
+        
+        System.out.println("MODEL CHECK");
+        System.out.println("models written:   " + models.size());
+        System.out.println("level by level:   " + expected.size());
+        System.out.println("same models:      " + same);
+        System.out.println();
     }
     
-    //the purpose of this method is to take a distance and 
-    public Distance displace_distance(Distance d, Atom a) {
-        
-        //stores the difference in each component
-        double xDiff, yDiff, zDiff;
+    //prints all solutions from solutions AL
+    public void print_solutions() {
+
+        PdbWriter writer = this.create_writer();
         
-        //gets the differences in component values so that atom2 can be shifted
-        //equally as atom1.
-        xDiff = d.get_atom1().get_xCoord() - a.get_xCoord();
-        yDiff = d.get_atom1().get_yCoord() - a.get_yCoord();
-        zDiff = d.get_atom1().get_zCoord() - a.get_zCoord();
+        for(Node[] sol : this.solutions)
+            writer.accept(sol, 0);
         
-        //distance is attached to a, so to speak
-        d.get_atom1().set_xyzCoord(a.get_xCoord(),a.get_yCoord(), a.get_zCoord());
+        writer.finish();
+    }
+    
+    //generates all solutions by walking from each surviving node of the 
+    //deepest level, level i, back to the first node.
+    public void generate_solutions(NodeArena arena, int[] leaves, RestraintIndex nmr, int i) {
+    
+        PruneTree pt = this.create_prune(arena, nmr);
         
-        //atom is updated accordingly so that the value of the 
-        //distance is maintained.
-        d.get_atom2().set_xyzCoord(d.get_atom2().get_xCoord() - xDiff,
-                                    d.get_atom2().get_yCoord() - yDiff, 
-                                    d.get_atom2().get_zCoord() - zDiff);
-        return d;
+        for(int n : leaves) {
+            
+            System.out.println(pt.calculate_DME(n, i));
+            this.solutions.add(arena.extract_solution(n, i));
+        }
     }
     
-    //this method takes the position in which the newly added atom is to be, 
-    //and gets the positions of the last three parents of the current node. 
-    public Clique[] create_moment(Node currNode, Distance currDist){
+    //expands each node of the frontier, all of which sit at the given level,
+    //exactly once by creating both of its children, pruning each child, and 
+    //returning the children that survived (in left to right order) as the 
+    //frontier for the next level. the work done is proportional to the number
+    //of nodes created.
+    public int[] expand_frontier(ProteinTree pt, int[] frontier, int level, ArrayList<Distance> covDistances, RestraintIndex backbonePWDistances) {
+        
+        NodeArena arena = pt.get_arena();
+        int[] nextFrontier = new int[2*frontier.length];
+        int size = 0;
+        
+        PruneTree prune = this.create_prune(arena, backbonePWDistances);
+        
+        Object event = this.metrics == null ? null : this.metrics.begin_level();
+        
+        this.label_level(arena, level+1, covDistances);
+        
+        for(int currNode : frontier) {
             
-        //will store the last three parents of the node currently being added
-        Node[] parentNodes = new Node[3];
-        
-        //two cliques that will be used to construct the moment
-        Clique c1,c2;
-        
-        //d1 and d2 come from the tree structure, d3 comes from the covalent
-        //bond distances AL
-        Distance d1, d2, d3;
-        
-        //array to return the two cliques of the moment
-        Clique[] moments = new Clique[2];
-        
-        //used for deep copy
-        Atom a1, a2;
-        
-        //deep copy
-        a1 = new Atom(currDist.get_atom1().get_name(),
-                        currDist.get_atom1().get_index(),
-                        currDist.get_atom1().get_xCoord(),
-                        currDist.get_atom1().get_yCoord(),
-                        currDist.get_atom1().get_zCoord());
-        
-        //deep copy
-        a2 = new Atom(currDist.get_atom2().get_name(), 
-                        currDist.get_atom2().get_index(),
-                        currDist.get_atom2().get_xCoord(),
-                        currDist.get_atom2().get_yCoord(),
-                        currDist.get_atom2().get_zCoord());
-        
-        //deep copy of distance defined by a1 and a2
-        Distance updatedDist = new Distance(a1, a2);
-
-        //assigns the last three parents to array, easier to handle
-        parentNodes[0] = currNode.get_parent().get_parent();  
-        parentNodes[1] = currNode.get_parent();       
-        parentNodes[2] = currNode;
-       
-        //creates new distances from the tree structure atoms
-        d1 = new Distance(parentNodes[0].get_atom(), parentNodes[1].get_atom());
-        d2 = new Distance(parentNodes[1].get_atom(), parentNodes[2].get_atom());
-        
-        //displaces the distance between the parent of the newly added atom 
-        //and the current atom.
-        this.displace_distance(updatedDist, parentNodes[2].get_atom());
-        
-        //create two cliques using atoms i-3 -> i, with the ith atom being 
-        //added.
-        c1 = new Clique(1,d1,d2);
-        c2 = new Clique(2,d2,updatedDist);
-        
-        //add cliques to moment array to then return
-        moments[0] = c1;
-        moments[1] = c2;
-        
-        return moments;
+            this.expand_node(pt, prune, currNode, level);
+            
+            //the children are the two nodes that were just created
+            int left = arena.get_size()-2;
+            int right = arena.get_size()-1;
+            
+            if(!arena.get_stop(left))
+                nextFrontier[size++] = left;
+            
+            if(!arena.get_stop(right))
+                nextFrontier[size++] = right;
+        }
+        
+        if(this.metrics != null)
+            this.metrics.end_level(event, level+1, frontier.length, size);
+        
+        return Arrays.copyOf(nextFrontier, size);
+    }
+    
+    //creates both children of the given node, which sits at the given level,
+    //and prunes each of them. the children are the last two nodes of the 
+    //arena, left then right, and a pruned child has its stop flag set.
+    public void expand_node(ProteinTree pt, PruneTree prune, int currNode, int level) {
+        
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        
+        //both children come from the torsion matrices of the next level,
+        //which differ only in the sign of the torsion angle.
+        int left = pt.create_nodei(currNode, this.torsions, level+1, false);
+        int right = pt.create_nodei(currNode, this.torsions, level+1, true);
+        
+        prune.prune_node(left, level+1);
+        prune.prune_node(right, level+1);
+        
+        pt.get_arena().set_checked(currNode, true);
+        
+        if(this.metrics != null)
+            this.metrics.record_expansion(level+1, System.nanoTime() - start);
+    }
+    
+    //creates the pruner used for the nodes of the given arena
+    public PruneTree create_prune(NodeArena arena, RestraintIndex nmr) {
+        
+        PruneTree prune = new PruneTree(arena, nmr, this.epsilon, this.metrics);
+        prune.set_interval(this.intervalPrune);
+        
+        return prune;
+    }
+    
+    //records the atom held by every node of the given level, which is the 
+    //second atom of the bond placing it
+    public void label_level(NodeArena arena, int level, ArrayList<Distance> covDistances) {
+        
+        Atom a = covDistances.get(level-2).get_atom2();
+        arena.set_levelAtom(level, a.get_name(), a.get_index());
     }
 }
\ No newline at end of file
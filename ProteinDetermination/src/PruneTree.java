@@ -1,80 +1,166 @@
 /*
  * The purpose of this class is to take a tree and prune the nodes that contain
  * atoms whose calculated coordinates don't produce distances that agree with
- * the distances obtained from NMR. 
+ * the distances obtained from NMR. A node either must keep its DME within
+ * epsilon, or, in interval mode, must keep every distance within the bounds
+ * of its restraint.
  */
 
-import java.util.*;
-//import Jama.*;
-
 public class PruneTree {
    
-    //AL that will contain all pairwise distances from the current solution
-    private ArrayList<Distance> solutionDistances, NMRDistances;
-    private Node currNode;
-    double DME;
+    //restraints of every atom, keyed by atom position
+    private RestraintIndex NMRDistances;
+    
+    //arena holding the tree
+    private NodeArena arena;
+    
+    //largest DME a node can have before its branch is pruned
+    private double epsilon;
+    
+    //records every evaluation, if not null
+    private SearchMetrics metrics;
+    
+    //if set, nodes are pruned by the bounds of each restraint rather than 
+    //by their DME
+    private boolean interval;
     
     //empty constructor
     public PruneTree(){}
     
     //constructor
-    public PruneTree(Node n, ArrayList<Distance> nmr){
+    public PruneTree(NodeArena na, RestraintIndex nmr, double eps){
         
-        DME = 0;
-        this.currNode = n;
+        this.arena = na;
         this.NMRDistances = nmr;
-        this.solutionDistances = new ArrayList<>();
+        this.epsilon = eps;
     }
     
-    public void calculate_DME() {
+    //constructor that records every evaluation in the given metrics
+    public PruneTree(NodeArena na, RestraintIndex nmr, double eps, SearchMetrics m){
+        
+        this(na, nmr, eps);
+        this.metrics = m;
+    }
     
-        for(Distance sd : this.solutionDistances) {
+    //each node carries the squared error accumulated by itself and all of its
+    //ancestors, so only the restraints between the node's atom and the atoms
+    //of its ancestors (excluding the first atom) are added here. the running
+    //error is compared against the squared tolerance, and the evaluation 
+    //stops as soon as it is exceeded. returns true if the node was pruned.
+    public boolean prune_node(int currNode, int level) {
+        
+        if(this.interval)
+            return this.prune_interval(currNode, level);
+        
+        //DME = sqrt(error)/(level-1) must not exceed epsilon
+        double limit = Math.pow(this.epsilon*(level-1), 2);
+        double error = this.arena.get_error(this.arena.get_parent(currNode));
         
-            for(Distance nd : this.NMRDistances) {
+        //the atom at a level sits at position level-1 of the index
+        int row = level-1;
+        
+        int n = this.arena.get_parent(currNode);
+        int l = level-1;
+        int compared = 0;
+        
+        //restraints are visited from the closest ancestor upwards, walking up
+        //the tree only as far as the earliest restrained ancestor.
+        for(int e = this.NMRDistances.get_rowEnd(row)-1; e >= this.NMRDistances.get_rowStart(row) && error <= limit; e--) {
+            
+            int partnerLevel = this.NMRDistances.get_partner(e)+1;
+            
+            //atoms that haven't been placed yet
+            if(partnerLevel >= level)
+                continue;
             
-                if((sd.get_atom1().get_index()==nd.get_atom2().get_index() && sd.get_atom2().get_index()==nd.get_atom1().get_index())) {
-                    this.DME += Math.pow(sd.get_distance() - nd.get_distance(), 2);
-                }
+            //the first atom isn't compared
+            if(partnerLevel < 2)
+                break;
+            
+            while(l > partnerLevel) {
+                n = this.arena.get_parent(n);
+                l--;
             }
+            
+            float sd = Distance.calc_distance(this.arena.get_x(currNode), this.arena.get_y(currNode), this.arena.get_z(currNode),
+                                              this.arena.get_x(n), this.arena.get_y(n), this.arena.get_z(n));
+            
+            error += Math.pow(sd - this.NMRDistances.get_target(e), 2);
+            compared++;
         }
         
-        this.DME = Math.sqrt(this.DME)/(currNode.get_index()-1);
+        this.arena.set_error(currNode, error);
+        
+        boolean prune = error > limit;
+        
+        if(prune)
+            this.arena.set_stop(currNode, true);
+        
+        if(this.metrics != null)
+            this.metrics.record_evaluation(level, currNode, compared, error, prune);
+        
+        return prune;
     }
     
-    //will take the current node and traverse back to the first atom, with
-    //each iteration taking the parent node and placing it into an array, to 
-    //then generate pairwise distance data.
-    public void generate_solutionPWDistances() {
-    
-        //same size as parent level for current node
-        Node[] solNodes = new Node[this.currNode.get_index()-1];
+    //prunes the node as soon as a single restraint is outside its bounds, 
+    //usually after comparing only the first few restraints. the squared 
+    //error is still accumulated for the nodes that survive, so their DME can
+    //be reported. returns true if the node was pruned.
+    private boolean prune_interval(int currNode, int level) {
         
-        int i = 0;
-        Node n = currNode.get_parent();
+        double error = this.arena.get_error(this.arena.get_parent(currNode));
+        int row = level-1;
         
-        //gets all nodes of current solution and adds to solNodes[]
-        while(n != null){
-            
-            solNodes[i] = n;
-            n = n.get_parent();
-            i++;
-        }
+        int n = this.arena.get_parent(currNode);
+        int l = level-1;
+        int compared = 0;
+        boolean prune = false;
         
-        //calculates and stores distance between current node's atom and every 
-        //other node's atom within the current solution
-        for(i = 0; i < solNodes.length; i++) {
+        for(int e = this.NMRDistances.get_rowEnd(row)-1; e >= this.NMRDistances.get_rowStart(row); e--) {
+            
+            int partnerLevel = this.NMRDistances.get_partner(e)+1;
             
-            Distance d;
+            //atoms that haven't been placed yet
+            if(partnerLevel >= level)
+                continue;
             
-            if(this.currNode.get_index() - i+1 > 3) {
-                
-                d = new Distance(this.currNode.get_atom(), solNodes[i].get_atom());
-                this.solutionDistances.add(d);
+            //the first atom isn't compared
+            if(partnerLevel < 2)
+                break;
+            
+            while(l > partnerLevel) {
+                n = this.arena.get_parent(n);
+                l--;
             }
+            
+            float sd = Distance.calc_distance(this.arena.get_x(currNode), this.arena.get_y(currNode), this.arena.get_z(currNode),
+                                              this.arena.get_x(n), this.arena.get_y(n), this.arena.get_z(n));
+            compared++;
+            
+            if(sd < this.NMRDistances.get_lower(e) || sd > this.NMRDistances.get_upper(e)) {
+                prune = true;
+                break;
+            }
+            
+            error += Math.pow(sd - this.NMRDistances.get_target(e), 2);
         }
+        
+        this.arena.set_error(currNode, error);
+        
+        if(prune)
+            this.arena.set_stop(currNode, true);
+        
+        if(this.metrics != null)
+            this.metrics.record_evaluation(level, currNode, compared, error, prune);
+        
+        return prune;
     }
     
-    //getter for DME
-    public double get_DME()
-        {return this.DME;}
+    //setter for interval mode
+    public void set_interval(boolean b)
+        {this.interval = b;}
+    
+    //DME of a node that sits at the given level, from its accumulated error
+    public double calculate_DME(int n, int level)
+        {return Math.sqrt(this.arena.get_error(n))/(level-1);}
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/*
+ * The purpose of this class is to index the NMR distance restraints by atom,
+ * so that the restraints of a single atom can be visited without scanning the
+ * entire list of distances. The index is stored in compressed sparse row form:
+ * the restraints of the atom at position i are found between rowStart[i] and
+ * rowStart[i+1], sorted by the position of the partner atom. Positions refer
+ * to the list of atoms the index was built from, which for the protein
+ * backbone is the level of the atom within the protein tree minus one. Each
+ * restraint has a target distance and an interval of allowed distances.
+ */
+
+import java.util.*;
+
+public class RestraintIndex {
+
+    //start of each atom's row, with one extra entry marking the end
+    private int[] rowStart;
+
+    //position of the partner atom, target distance, and lower and upper
+    //bounds of each restraint
+    private int[] partner;
+    private float[] target, lower, upper;
+
+    //constructor for restraints whose bounds are their target distances
+    public RestraintIndex(int atoms, int[] atom1, int[] atom2, float[] distance, int count)
+        {this(atoms, atom1, atom2, distance, distance, distance, count);}
+
+    //constructor. atom1[k] and atom2[k] are the positions of the two atoms of
+    //the kth restraint, distance[k] is its target distance, and lo[k] and
+    //hi[k] are its bounds.
+    public RestraintIndex(int atoms, int[] atom1, int[] atom2, float[] distance, float[] lo, float[] hi, int count) {
+
+        this.rowStart = new int[atoms+1];
+        this.partner = new int[2*count];
+        this.target = new float[2*count];
+        this.lower = new float[2*count];
+        this.upper = new float[2*count];
+
+        //every restraint is stored in the rows of both of its atoms
+        for(int k = 0; k < count; k++) {
+            this.rowStart[atom1[k]+1]++;
+            this.rowStart[atom2[k]+1]++;
+        }
+
+        for(int i = 0; i < atoms; i++)
+            this.rowStart[i+1] += this.rowStart[i];
+
+        int[] next = Arrays.copyOf(this.rowStart, atoms);
+
+        for(int k = 0; k < count; k++) {
+
+            int e = next[atom1[k]]++;
+            this.partner[e] = atom2[k];
+            this.target[e] = distance[k];
+            this.lower[e] = lo[k];
+            this.upper[e] = hi[k];
+
+            e = next[atom2[k]]++;
+            this.partner[e] = atom1[k];
+            this.target[e] = distance[k];
+            this.lower[e] = lo[k];
+            this.upper[e] = hi[k];
+        }
+
+        for(int i = 0; i < atoms; i++)
+            this.sort_row(i);
+    }
+
+    //insertion sort of a single row by partner position, rows are short and
+    //the sort is stable so restraints keep the order they were given in.
+    private void sort_row(int i) {
+
+        for(int k = this.rowStart[i]+1; k < this.rowStart[i+1]; k++) {
+
+            int p = this.partner[k];
+            float t = this.target[k], lo = this.lower[k], hi = this.upper[k];
+            int j = k-1;
+
+            while(j >= this.rowStart[i] && this.partner[j] > p) {
+                this.partner[j+1] = this.partner[j];
+                this.target[j+1] = this.target[j];
+                this.lower[j+1] = this.lower[j];
+                this.upper[j+1] = this.upper[j];
+                j--;
+            }
+
+            this.partner[j+1] = p;
+            this.target[j+1] = t;
+            this.lower[j+1] = lo;
+            this.upper[j+1] = hi;
+        }
+    }
+
+    //getter for number of atoms
+    public int get_atoms()
+        {return this.rowStart.length-1;}
+
+    //getter for the total number of entries, each restraint is stored twice
+    public int get_entries()
+        {return this.partner.length;}
+
+    //getter for the first entry of an atom's row
+    public int get_rowStart(int i)
+        {return this.rowStart[i];}
+
+    //getter for the end (exclusive) of an atom's row
+    public int get_rowEnd(int i)
+        {return this.rowStart[i+1];}
+
+    //getter for the partner position of an entry
+    public int get_partner(int e)
+        {return this.partner[e];}
+
+    //getter for the target distance of an entry
+    public float get_target(int e)
+        {return this.target[e];}
+
+    //getter for the lower bound of an entry
+    public float get_lower(int e)
+        {return this.lower[e];}
+
+    //getter for the upper bound of an entry
+    public float get_upper(int e)
+        {return this.upper[e];}
+}
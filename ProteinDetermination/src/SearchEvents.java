@@ -0,0 +1,99 @@
+/*
+ * The purpose of this class is to emit the Java Flight Recorder events of the
+ * search. The events are only committed while a recording is running, for
+ * example one started with -XX:StartFlightRecording. This class is the only
+ * one that refers to the jdk.jfr package, which older Java 8 runtimes lack, so
+ * it is loaded only when events are requested and available.
+ */
+
+import jdk.jfr.*;
+
+public class SearchEvents {
+
+    //expansion of every node of one level of the tree into the next level
+    @Name("ProteinDetermination.LevelExpansion")
+    @Label("Level Expansion")
+    @Category("Protein Determination")
+    static class LevelExpansion extends Event {
+
+        @Label("Level")
+        int level;
+
+        @Label("Frontier")
+        int frontier;
+
+        @Label("Survivors")
+        int survivors;
+    }
+
+    //decision on whether to prune a single node
+    @Name("ProteinDetermination.PruneDecision")
+    @Label("Prune Decision")
+    @Category("Protein Determination")
+    static class PruneDecision extends Event {
+
+        @Label("Level")
+        int level;
+
+        @Label("Node")
+        int node;
+
+        @Label("Restraints Compared")
+        int compared;
+
+        @Label("Squared Error")
+        double error;
+
+        @Label("Pruned")
+        boolean pruned;
+    }
+
+    //returns true if the running JVM supports flight recorder events
+    public static boolean available() {
+
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }
+        catch(ClassNotFoundException e)
+            {return false;}
+    }
+
+    //begins timing the expansion of a level
+    public static Object begin_level() {
+
+        LevelExpansion e = new LevelExpansion();
+        e.begin();
+
+        return e;
+    }
+
+    //ends the expansion of a level, committing its event
+    public static void end_level(Object event, int level, int frontier, int survivors) {
+
+        LevelExpansion e = (LevelExpansion)event;
+        e.end();
+
+        if(e.shouldCommit()) {
+            e.level = level;
+            e.frontier = frontier;
+            e.survivors = survivors;
+            e.commit();
+        }
+    }
+
+    //commits the event of a single prune decision
+    public static void prune_decision(int level, int node, int compared, double error, boolean pruned) {
+
+        PruneDecision e = new PruneDecision();
+
+        if(e.isEnabled()) {
+            e.level = level;
+            e.node = node;
+            e.compared = compared;
+            e.error = error;
+            e.pruned = pruned;
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The purpose of this class is to record what the search does at each level
+ * of the tree: the nodes created and pruned, the DME evaluations made, the
+ * restraints compared, and a histogram of the time taken to expand each node.
+ * The counters can be updated from several threads at once. If requested,
+ * each level expansion and prune decision is also emitted as a Java Flight
+ * Recorder event, and a summary table can be printed at the end of the run.
+ * The search only records anything when it is given a SearchMetrics object.
+ */
+
+import java.util.concurrent.atomic.*;
+
+public class SearchMetrics {
+
+    //number of histogram buckets, bucket b holding times below 2^b ns
+    public static final int BUCKETS = 40;
+
+    //deepest level recorded
+    private int levels;
+
+    //counters of each level, indexed by level
+    private AtomicLongArray created, pruned, evaluations, comparisons, nanos;
+
+    //expansion time histogram of each level, indexed by level*BUCKETS+bucket
+    private AtomicLongArray histogram;
+
+    //if set, flight recorder events are emitted as well
+    private boolean events;
+
+    //constructor
+    public SearchMetrics(int lastLevel, boolean jfr) {
+
+        this.levels = lastLevel;
+        this.created = new AtomicLongArray(lastLevel+1);
+        this.pruned = new AtomicLongArray(lastLevel+1);
+        this.evaluations = new AtomicLongArray(lastLevel+1);
+        this.comparisons = new AtomicLongArray(lastLevel+1);
+        this.nanos = new AtomicLongArray(lastLevel+1);
+        this.histogram = new AtomicLongArray((lastLevel+1)*BUCKETS);
+        this.events = jfr && SearchEvents.available();
+
+        if(jfr && !this.events)
+            System.out.println("Flight recorder events are not supported by this JVM.");
+    }
+
+    //records the expansion of a node into its two children at the given
+    //level, which took the given time
+    public void record_expansion(int level, long time) {
+
+        this.created.addAndGet(level, 2);
+        this.nanos.addAndGet(level, time);
+        this.histogram.incrementAndGet(level*BUCKETS + bucket(time));
+    }
+
+    //records the DME evaluation of a node at the given level, which compared
+    //the given number of restraints
+    public void record_evaluation(int level, int node, int compared, double error, boolean prune) {
+
+        this.evaluations.incrementAndGet(level);
+        this.comparisons.addAndGet(level, compared);
+
+        if(prune)
+            this.pruned.incrementAndGet(level);
+
+        if(this.events)
+            SearchEvents.prune_decision(level, node, compared, error, prune);
+    }
+
+    //begins the expansion of a whole level, returning the event to be ended
+    //or null if events aren't emitted
+    public Object begin_level()
+        {return this.events ? SearchEvents.begin_level() : null;}
+
+    //ends the expansion of a whole level
+    public void end_level(Object event, int level, int frontier, int survivors) {
+
+        if(event != null)
+            SearchEvents.end_level(event, level, frontier, survivors);
+    }
+
+    //histogram bucket holding the given time
+    private static int bucket(long time)
+        {return Math.min(BUCKETS-1, 64 - Long.numberOfLeadingZeros(Math.max(time, 0)));}
+
+    //the time below which the given fraction of a level's expansions took,
+    //to the resolution of the histogram
+    public long get_percentile(int level, double fraction) {
+
+        long total = 0;
+        for(int b = 0; b < BUCKETS; b++)
+            total += this.histogram.get(level*BUCKETS + b);
+
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+
+            seen += this.histogram.get(level*BUCKETS + b);
+
+            if(total > 0 && seen >= fraction*total)
+                return 1L << b;
+        }
+
+        return 0;
+    }
+
+    //getter for nodes created at a level
+    public long get_created(int level)
+        {return this.created.get(level);}
+
+    //getter for nodes pruned at a level
+    public long get_pruned(int level)
+        {return this.pruned.get(level);}
+
+    //getter for DME evaluations made at a level
+    public long get_evaluations(int level)
+        {return this.evaluations.get(level);}
+
+    //getter for restraint comparisons made at a level
+    public long get_comparisons(int level)
+        {return this.comparisons.get(level);}
+
+    //getter for the total expansion time of a level
+    public long get_nanos(int level)
+        {return this.nanos.get(level);}
+
+    //prints to screen a table of every level that was reached
+    public void print_summary() {
+
+        System.out.println("SEARCH METRICS");
+        System.out.println(String.format("%5s %10s %10s %10s %12s %10s %10s %10s",
+            "level", "created", "pruned", "DME evals", "comparisons", "time (ms)", "p50 (ns)", "p99 (ns)"));
+
+        long created = 0, pruned = 0, evaluations = 0, comparisons = 0, nanos = 0;
+
+        for(int l = 0; l <= this.levels; l++) {
+
+            if(this.created.get(l) == 0 && this.evaluations.get(l) == 0)
+                continue;
+
+            System.out.println(String.format("%5d %10d %10d %10d %12d %10.3f %10d %10d",
+                l, this.created.get(l), this.pruned.get(l), this.evaluations.get(l), this.comparisons.get(l),
+                this.nanos.get(l)/1e6, this.get_percentile(l, .5), this.get_percentile(l, .99)));
+
+            created += this.created.get(l);
+            pruned += this.pruned.get(l);
+            evaluations += this.evaluations.get(l);
+            comparisons += this.comparisons.get(l);
+            nanos += this.nanos.get(l);
+        }
+
+        System.out.println(String.format("%5s %10d %10d %10d %12d %10.3f", "total", created, pruned, evaluations, comparisons, nanos/1e6));
+        System.out.println();
+    }
+}
@@ -0,0 +1,650 @@
+/*
+ * The purpose of this class is to place the atoms of every residue that the
+ * backbone leaves out: its side chain, along with its carbonyl oxygen and
+ * hydrogens. Once the backbone is fixed, the atoms of a residue only depend
+ * on where its N, CA and C atoms are, so each residue is an independent
+ * problem anchored on those three atoms. Each is solved by the same branch
+ * and prune search as the backbone, in a frame of its own whose first three
+ * atoms are its N, CA and C, the order of its other atoms being chosen by
+ * AtomOrdering. The residues are solved at once, one task per residue on a
+ * work-stealing pool, before the backbone is, since they don't depend on it.
+ * A solver created on a worker of a pool, as each job of BatchDriver is,
+ * forks its tasks onto that pool rather than starting threads of its own, so
+ * the jobs don't each start a thread for every core.
+ *
+ * A solution of a residue is attached to a backbone solution by the rigid
+ * motion that takes its N, CA and C onto those of the backbone, which is
+ * exact because the distances among them are the same. The two reflections
+ * of a residue through the plane of its N, CA and C both agree with the
+ * restraints among its own atoms, so of the residue's solutions the one that
+ * best agrees with the restraints between its atoms and the backbone is
+ * kept. Every residue reads the same index of restraints among all atoms,
+ * which is never written once built.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SideChainSolver {
+
+    //number of placements of the backbone around a residue whose choice of
+    //candidate is remembered
+    private static final int CHOICES_LIMIT = 1 << 12;
+
+    //spacing, in Angstrom, of the grid placements are rounded to when they
+    //are compared, far below the precision of the restraints
+    private static final double PLACEMENT_GRID = 1e-4;
+
+    //gives the settings each residue is solved with
+    private ProteinDetermination pd;
+
+    //every atom of the model, and the restraints among them by position
+    private ArrayList<Atom> atoms;
+    private RestraintIndex restraints;
+
+    //whether the atom at each position is an N, CA or C of the backbone
+    private boolean[] backbone;
+
+    //residues whose N, CA and C are on the backbone, in backbone order
+    private ArrayList<Residue> residues;
+
+    //work-stealing pool the residues are solved on, and whether it's the
+    //pool of the caller rather than one of its own
+    private ForkJoinPool pool;
+    private boolean shared;
+
+    //time taken to solve every residue
+    private double millis;
+
+    //constructor. the distance data must hold the restraints among all atoms
+    //and the atoms of the backbone. the residues are solved on the given 
+    //number of threads, unless the caller runs on a pool, whose threads are
+    //then shared.
+    public SideChainSolver(ProteinDetermination p, DistanceData d, int threads) {
+
+        this.pd = p;
+        this.atoms = d.get_all_atoms();
+        this.shared = ForkJoinTask.inForkJoinPool();
+        this.pool = this.shared ? ForkJoinTask.getPool() : new ForkJoinPool(Math.max(1, threads));
+
+        PairBuffer pairs = d.get_pairwise_pairs();
+        this.restraints = pairs.to_restraintIndex(this.atoms.size());
+
+        this.backbone = new boolean[this.atoms.size()];
+        for(Atom a : d.get_onlyPBB())
+            this.backbone[a.get_index()-1] = true;
+
+        this.residues = this.find_residues(d.get_onlyPBB(), d.get_model());
+    }
+
+    //the residues of the backbone, each atom of the model belonging to the
+    //residue with its chain and sequence number
+    private ArrayList<Residue> find_residues(ArrayList<Atom> bb, PdbModel model) {
+
+        HashMap<String, ArrayList<Integer>> members = new HashMap<>();
+
+        for(int i = 0; i < this.atoms.size(); i++) {
+
+            String key = model.get_chainID(i) + ":" + model.get_resSeq(i);
+
+            if(!members.containsKey(key))
+                members.put(key, new ArrayList<>());
+
+            if(!this.backbone[i])
+                members.get(key).add(i);
+        }
+
+        ArrayList<Residue> found = new ArrayList<>();
+
+        for(int k = 0; k+2 < bb.size(); k += 3) {
+
+            int n = bb.get(k).get_index()-1;
+            ArrayList<Integer> others = members.get(model.get_chainID(n) + ":" + model.get_resSeq(n));
+
+            int[] positions = new int[3 + (others == null ? 0 : others.size())];
+            positions[0] = n;
+            positions[1] = bb.get(k+1).get_index()-1;
+            positions[2] = bb.get(k+2).get_index()-1;
+
+            for(int j = 3; j < positions.length; j++)
+                positions[j] = others.get(j-3);
+
+            found.add(new Residue(positions));
+        }
+
+        return found;
+    }
+
+    //solves every residue, one task per residue
+    public void solve() {
+
+        long start = System.nanoTime();
+
+        ArrayList<ResidueTask> tasks = new ArrayList<>();
+        for(Residue r : this.residues)
+            tasks.add(new ResidueTask(r));
+
+        //on the caller's pool the tasks are forked from the caller's thread
+        if(this.shared)
+            ForkJoinTask.invokeAll(tasks);
+        else
+            this.pool.invoke(new RecursiveAction() {
+
+                @Override
+                protected void compute()
+                    {invokeAll(tasks);}
+            });
+
+        this.millis = (System.nanoTime() - start)/1e6;
+    }
+
+    //solves a single residue in its own frame, whose first three atoms are
+    //its N, CA and C. its other atoms are placed in the order chosen by
+    //AtomOrdering, and any that can't be placed are left out.
+    private void solve_residue(Residue r) {
+
+        int size = r.positions.length;
+
+        //the restraints among the atoms of the residue, by their place in it
+        HashMap<Integer, Integer> local = new HashMap<>();
+        for(int j = 0; j < size; j++)
+            local.put(r.positions[j], j);
+
+        PairBuffer pairs = new PairBuffer(4*size);
+
+        for(int j = 0; j < size; j++) {
+
+            int i = r.positions[j];
+
+            for(int e = this.restraints.get_rowStart(i); e < this.restraints.get_rowEnd(i); e++) {
+
+                Integer q = local.get(this.restraints.get_partner(e));
+
+                if(q != null && q > j)
+                    pairs.add(j, q, this.restraints.get_target(e));
+            }
+        }
+
+        pairs.sort(size);
+        if(this.pd.intervalPrune)
+            pairs.set_bounds((float)this.pd.intervalTolerance);
+
+        ArrayList<Atom> members = new ArrayList<>(size);
+        for(int i : r.positions)
+            members.add(this.atoms.get(i));
+
+        AtomOrdering ao = new AtomOrdering(pairs.to_restraintIndex(size), size);
+        int levels = ao.get_levels();
+
+        if(levels < 3)
+            return;
+
+        //each residue is solved by an engine of its own with the settings of
+        //the backbone's
+        ProteinDetermination engine = new ProteinDetermination();
+        engine.epsilon = this.pd.epsilon;
+        engine.intervalPrune = this.pd.intervalPrune;
+        engine.intervalTolerance = this.pd.intervalTolerance;
+        engine.torsions = ao.to_torsionTable();
+
+        ArrayList<Distance> bonds = ao.to_bonds(members);
+        RestraintIndex nmr = ao.to_restraintIndex(this.pd.intervalPrune ? (float)this.pd.intervalTolerance : 0);
+
+        ProteinTree pt = engine.create_tree(bonds);
+        int[] leaves = engine.solve_levels(pt, new int[]{pt.get_node3()}, 3, levels, bonds, nmr);
+
+        //the level each atom of the residue is first placed at, 0 if never
+        r.level = new int[size];
+        for(int l = levels; l >= 1; l--)
+            r.level[ao.get_atom(l)] = l;
+
+        NodeArena arena = pt.get_arena();
+
+        for(int leaf : leaves) {
+
+            //coordinates of the atom of each level, walking up from the leaf
+            double[] xyz = new double[3*(levels+1)];
+
+            for(int n = leaf, l = levels; l >= 1; n = arena.get_parent(n), l--) {
+                xyz[3*l] = arena.get_x(n);
+                xyz[3*l+1] = arena.get_y(n);
+                xyz[3*l+2] = arena.get_z(n);
+            }
+
+            double[] coords = new double[3*size];
+            for(int j = 0; j < size; j++)
+                if(r.level[j] > 0)
+                    System.arraycopy(xyz, 3*r.level[j], coords, 3*j, 3);
+
+            r.solutions.add(coords);
+        }
+
+        this.find_candidates(r);
+        r.found = r.solutions.size();
+        r.solutions = null;
+    }
+
+    //finds the restraints between the atoms of a residue and the backbone
+    //outside it, and keeps as candidates only the first of the solutions
+    //that place the atoms of those restraints alike, since the others can't
+    //agree with the backbone any better. for each candidate the position of
+    //the residue's atom of each restraint is kept in one array, so the
+    //candidates are scored by a single pass over it.
+    private void find_candidates(Residue r) {
+
+        ArrayList<Integer> atom = new ArrayList<>(), partner = new ArrayList<>();
+        ArrayList<Float> target = new ArrayList<>();
+
+        for(int j = 3; j < r.positions.length; j++) {
+
+            int i = r.positions[j];
+
+            for(int e = this.restraints.get_rowStart(i); e < this.restraints.get_rowEnd(i) && r.level[j] > 0; e++) {
+
+                int q = this.restraints.get_partner(e);
+
+                if(this.backbone[q] && q != r.positions[0] && q != r.positions[1] && q != r.positions[2]) {
+                    atom.add(j);
+                    partner.add(q);
+                    target.add(this.restraints.get_target(e));
+                }
+            }
+        }
+
+        int count = atom.size();
+        r.partner = new int[count];
+        r.target = new float[count];
+
+        for(int t = 0; t < count; t++) {
+            r.partner[t] = partner.get(t);
+            r.target[t] = target.get(t);
+        }
+
+        HashSet<List<Double>> seen = new HashSet<>();
+        double[] restrained = new double[3*count*Math.min(r.solutions.size(), 64)];
+
+        for(double[] coords : r.solutions) {
+
+            List<Double> key = new ArrayList<>(3*count);
+            for(int j : atom)
+                for(int i = 0; i < 3; i++)
+                    key.add(coords[3*j+i]);
+
+            if(!seen.add(key))
+                continue;
+
+            if(restrained.length < 3*count*(r.candidates.size()+1))
+                restrained = Arrays.copyOf(restrained, 2*restrained.length);
+
+            for(int i = 0; i < 3*count; i++)
+                restrained[3*count*r.candidates.size() + i] = key.get(i);
+
+            r.candidates.add(coords);
+        }
+
+        r.restrained = Arrays.copyOf(restrained, 3*count*r.candidates.size());
+    }
+
+    //the full-atom model of a backbone solution, deepest node first: every
+    //atom of the backbone solution, and every atom placed of each residue
+    //whose N, CA and C it holds, in the order of the model
+    public Node[] complete(Node[] sol) {
+
+        //position of every atom of the backbone solution
+        double[] placed = new double[3*this.atoms.size()];
+        boolean[] known = new boolean[this.atoms.size()];
+
+        for(Node n : sol) {
+
+            Atom a = n.get_atom();
+            int i = a.get_index()-1;
+
+            placed[3*i] = a.get_xCoord();
+            placed[3*i+1] = a.get_yCoord();
+            placed[3*i+2] = a.get_zCoord();
+            known[i] = true;
+        }
+
+        boolean[] onBackbone = Arrays.copyOf(known, known.length);
+
+        for(Residue r : this.residues) {
+
+            if(r.candidates.isEmpty() || !known[r.positions[0]] || !known[r.positions[1]] || !known[r.positions[2]])
+                continue;
+
+            double[] frame = this.find_frame(r, placed);
+            double[] best = r.candidates.get(this.best_candidate(r, frame, placed, onBackbone));
+
+            best = this.move(best, frame);
+
+            for(int j = 3; j < r.positions.length; j++)
+                if(r.level[j] > 0) {
+                    System.arraycopy(best, 3*j, placed, 3*r.positions[j], 3);
+                    known[r.positions[j]] = true;
+                }
+        }
+
+        int count = 0;
+        for(boolean k : known)
+            if(k)
+                count++;
+
+        Node[] full = new Node[count];
+        int k = count;
+
+        for(int i = 0; i < this.atoms.size(); i++) {
+
+            if(!known[i])
+                continue;
+
+            Atom a = this.atoms.get(i);
+            full[--k] = new Node(count-k, new Atom(a.get_name(), a.get_index(), placed[3*i], placed[3*i+1], placed[3*i+2]), null, false, false);
+
+            if(k < count-1)
+                full[k+1].set_parent(full[k]);
+        }
+
+        return full;
+    }
+
+    //completes every solution as above, keeping their order
+    public ArrayList<Node[]> complete_all(ArrayList<Node[]> solutions) {
+
+        ArrayList<Node[]> full = new ArrayList<>(solutions.size());
+
+        for(Node[] sol : solutions)
+            full.add(this.complete(sol));
+
+        return full;
+    }
+
+    //the rigid motion taking the N, CA and C of a residue's own frame onto
+    //their positions on the backbone: the rotation, row by row, followed by
+    //the translation. the frame of each set of three atoms has its first
+    //axis along N to CA and its second in their plane, towards C.
+    private double[] find_frame(Residue r, double[] placed) {
+
+        double[] target = this.axes(placed, r.positions[0], r.positions[1], r.positions[2]);
+        double[] own = this.axes(r.candidates.get(0), 0, 1, 2);
+
+        //rotation = target axes * own axes transposed
+        double[] m = new double[12];
+
+        for(int i = 0; i < 3; i++) {
+
+            for(int j = 0; j < 3; j++)
+                for(int a = 0; a < 3; a++)
+                    m[4*i+j] += target[3*a+i]*own[3*a+j];
+
+            //translation takes the residue's N onto the backbone's
+            m[4*i+3] = placed[3*r.positions[0]+i];
+            for(int j = 0; j < 3; j++)
+                m[4*i+3] -= m[4*i+j]*r.candidates.get(0)[j];
+        }
+
+        return m;
+    }
+
+    //the orthonormal axes of the frame of the atoms at positions n, ca and c
+    //of a coordinate array, axis by axis
+    private double[] axes(double[] xyz, int n, int ca, int c) {
+
+        double[] e = new double[9];
+
+        for(int i = 0; i < 3; i++) {
+            e[i] = xyz[3*ca+i] - xyz[3*n+i];
+            e[3+i] = xyz[3*c+i] - xyz[3*n+i];
+        }
+
+        normalize(e, 0);
+
+        double dot = e[0]*e[3] + e[1]*e[4] + e[2]*e[5];
+        for(int i = 0; i < 3; i++)
+            e[3+i] -= dot*e[i];
+
+        normalize(e, 3);
+
+        //third axis is the cross product of the first two
+        e[6] = e[1]*e[5] - e[2]*e[4];
+        e[7] = e[2]*e[3] - e[0]*e[5];
+        e[8] = e[0]*e[4] - e[1]*e[3];
+
+        return e;
+    }
+
+    private static void normalize(double[] v, int off) {
+
+        double len = Math.sqrt(v[off]*v[off] + v[off+1]*v[off+1] + v[off+2]*v[off+2]);
+
+        for(int i = 0; i < 3; i++)
+            v[off+i] /= len;
+    }
+
+    //the coordinates of a residue's solution moved by a rigid motion
+    private double[] move(double[] coords, double[] m) {
+
+        double[] moved = new double[coords.length];
+
+        for(int j = 0; j < coords.length/3; j++)
+            for(int i = 0; i < 3; i++)
+                moved[3*j+i] = m[4*i]*coords[3*j] + m[4*i+1]*coords[3*j+1] + m[4*i+2]*coords[3*j+2] + m[4*i+3];
+
+        return moved;
+    }
+
+    //the candidate of a residue whose squared error against the atoms of
+    //the backbone solution is least, the earliest on a tie. the backbone
+    //atoms are moved into the residue's own frame rather than every
+    //candidate onto the backbone, and a candidate is dropped as soon as its
+    //error reaches the least found. solutions that differ away from the
+    //residue place its backbone atoms alike in its frame, to within
+    //rounding, so the choice made for each placement is remembered.
+    private int best_candidate(Residue r, double[] m, double[] placed, boolean[] onBackbone) {
+
+        int count = r.partner.length;
+        double[] local = new double[3*count];
+
+        //the inverse of the motion is its rotation transposed, applied
+        //after the translation is taken away. backbone atoms missing from
+        //the solution are left as NaN.
+        for(int t = 0; t < count; t++) {
+
+            int q = r.partner[t];
+
+            for(int i = 0; i < 3; i++) {
+
+                local[3*t+i] = onBackbone[q] ? 0 : Double.NaN;
+
+                for(int a = 0; a < 3 && onBackbone[q]; a++)
+                    local[3*t+i] += m[4*a+i]*(placed[3*q+a] - m[4*a+3]);
+            }
+        }
+
+        Placement key = new Placement(local);
+
+        synchronized(r.choices) {
+
+            Integer chosen = r.choices.get(key);
+            if(chosen != null)
+                return chosen;
+        }
+
+        int best = this.score_candidates(r, local);
+
+        synchronized(r.choices) {
+
+            if(r.choices.size() == CHOICES_LIMIT)
+                r.choices.clear();
+
+            r.choices.put(key, best);
+        }
+
+        return best;
+    }
+
+    //the candidate of a residue with the least squared error against the
+    //backbone atoms of its restraints, placed in its frame as given
+    private int score_candidates(Residue r, double[] local) {
+
+        int count = r.partner.length;
+        int best = 0;
+        double bestError = Double.POSITIVE_INFINITY;
+
+        for(int c = 0; c < r.candidates.size(); c++) {
+
+            double error = 0;
+            int off = 3*count*c;
+
+            for(int t = 0; t < count && error < bestError; t++) {
+
+                if(Double.isNaN(local[3*t]))
+                    continue;
+
+                float sd = Distance.calc_distance(r.restrained[off+3*t], r.restrained[off+3*t+1], r.restrained[off+3*t+2], local[3*t], local[3*t+1], local[3*t+2]);
+                error += (sd - r.target[t])*(double)(sd - r.target[t]);
+            }
+
+            if(error < bestError) {
+                best = c;
+                bestError = error;
+            }
+        }
+
+        return best;
+    }
+
+    //prints to screen how many atoms of each residue were placed, and how
+    //many solutions each residue has
+    public void print_summary() {
+
+        int atomsPlaced = 0, atomsTotal = 0, fewest = Integer.MAX_VALUE, most = 0;
+        long candidates = 0;
+
+        for(Residue r : this.residues) {
+
+            atomsTotal += r.positions.length-3;
+            for(int j = 3; j < r.positions.length; j++)
+                if(r.level != null && r.level[j] > 0)
+                    atomsPlaced++;
+
+            fewest = Math.min(fewest, r.found);
+            most = Math.max(most, r.found);
+            candidates += r.candidates.size();
+        }
+
+        System.out.println("SIDE CHAINS");
+        System.out.println("residues solved:       " + this.residues.size());
+        System.out.println("atoms placed:          " + atomsPlaced + " of " + atomsTotal);
+        System.out.println("solutions per residue: " + (this.residues.isEmpty() ? 0 : fewest) + " to " + most);
+        System.out.println("candidates kept:       " + candidates);
+        System.out.println("threads:               " + this.pool.getParallelism());
+        System.out.println("time (ms):             " + String.format("%.3f", this.millis));
+        System.out.println();
+    }
+
+    //stops the threads of the pool, unless they're the caller's
+    public void shutdown() {
+
+        if(!this.shared)
+            this.pool.shutdown();
+    }
+
+    //the atoms of a residue and the solutions of its own problem
+    private static class Residue {
+
+        //positions of its N, CA and C, followed by its other atoms
+        private int[] positions;
+
+        //level at which each of its atoms is placed, 0 if it can't be
+        private int[] level;
+
+        //coordinates of its atoms in each solution, in its own frame, while
+        //it's solved, and the solutions that place its restrained atoms
+        //differently, which are kept
+        private ArrayList<double[]> solutions, candidates;
+
+        //number of solutions found
+        private int found;
+
+        //the backbone atom and target distance of each restraint between
+        //its atoms placed and the backbone outside it, and the position of
+        //its atom of each restraint in each candidate, candidate by candidate
+        private int[] partner;
+        private float[] target;
+        private double[] restrained;
+
+        //candidate chosen for each placement of the backbone atoms of its
+        //restraints in its frame
+        private HashMap<Placement, Integer> choices;
+
+        Residue(int[] p) {
+
+            this.positions = p;
+            this.solutions = new ArrayList<>();
+            this.candidates = new ArrayList<>();
+            this.choices = new HashMap<>();
+        }
+    }
+
+    //positions of the backbone atoms of a residue's restraints in its frame,
+    //rounded to the grid, a missing atom being given the least value
+    private static class Placement {
+
+        private long[] cells;
+        private int hash;
+
+        Placement(double[] p) {
+
+            this.cells = new long[p.length];
+            for(int i = 0; i < p.length; i++)
+                this.cells[i] = Double.isNaN(p[i]) ? Long.MIN_VALUE : Math.round(p[i]/PLACEMENT_GRID);
+
+            this.hash = Arrays.hashCode(this.cells);
+        }
+
+        @Override
+        public int hashCode()
+            {return this.hash;}
+
+        @Override
+        public boolean equals(Object o)
+            {return o instanceof Placement && Arrays.equals(this.cells, ((Placement)o).cells);}
+    }
+
+    //solves a single residue
+    private class ResidueTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Residue residue;
+
+        ResidueTask(Residue r)
+            {this.residue = r;}
+
+        @Override
+        protected void compute()
+            {solve_residue(this.residue);}
+    }
+
+    //passes every solution to the consumer it wraps once its residues are
+    //placed
+    public static class CompletingConsumer implements SolutionConsumer {
+
+        private SolutionConsumer consumer;
+        private SideChainSolver solver;
+
+        public CompletingConsumer(SolutionConsumer c, SideChainSolver s) {
+
+            this.consumer = c;
+            this.solver = s;
+        }
+
+        @Override
+        public void accept(Node[] sol, double dme)
+            {this.consumer.accept(this.solver.complete(sol), dme);}
+
+        @Override
+        public void finish()
+            {this.consumer.finish();}
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * The purpose of this class is to collapse a family of solutions into
+ * clusters of nearly identical structures and keep one representative of
+ * each. Two solutions are neighbours if their RMSD after optimal
+ * superposition is within the tolerance. The RMSD is found with the
+ * quaternion characteristic polynomial method, which gives the same value as
+ * the Kabsch superposition from a 3x3 inner product matrix without a singular
+ * value decomposition. Superposed RMSD is a metric, so the RMSD of every
+ * solution to a few pivot solutions, chosen far apart, bounds the RMSD of
+ * any two solutions by the triangle inequality: from below by the largest
+ * difference of their RMSDs to a pivot, and from above by the smallest sum.
+ * Solutions are sorted by their RMSD to the first pivot, and a pair is only
+ * superposed if its bounds don't already decide it. The neighbours are
+ * found on a work-stealing pool, after which the solution with the most
+ * neighbours left unassigned is repeatedly taken as the representative of a
+ * new cluster made of itself and those neighbours.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class SolutionClusterer {
+
+    //largest number of pivot solutions the RMSDs are bounded by
+    private static final int PIVOTS = 32;
+
+    //margin kept by the bounds, so that rounding in the RMSDs they are made
+    //from never decides a pair the superposition would have decided 
+    //otherwise
+    private static final double SLACK = 1e-6;
+
+    //largest RMSD, in Angstrom, between two solutions of the same cluster
+    private double tolerance;
+
+    //pool the neighbours are found on
+    private ForkJoinPool pool;
+
+    //centred coordinates (x,y,z of each atom) and radius of gyration of each
+    //solution
+    private double[][] coords;
+    private double[] rg;
+
+    //RMSD of each solution to each pivot, the pivots of a solution together
+    private double[] pivotRmsd;
+    private int pivots;
+
+    //solutions sorted by RMSD to the first pivot
+    private Integer[] order;
+
+    //neighbours of each solution
+    private int[][] neighbours;
+
+    //number of superpositions made, and of pairs decided by the bounds 
+    //alone, rejected or accepted
+    private AtomicLong superpositions, rejected, accepted;
+
+    //cluster of each solution, and the representative of each cluster
+    private int[] cluster;
+    private ArrayList<Integer> representatives;
+
+    //time taken to cluster, in nanoseconds
+    private long nanos;
+
+    //constructor
+    public SolutionClusterer(double tol, int threads) {
+
+        this.tolerance = tol;
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.superpositions = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.accepted = new AtomicLong();
+    }
+
+    //clusters the solutions and returns the representative of each cluster,
+    //in the order the representatives were found in the list
+    public ArrayList<Node[]> cluster(ArrayList<Node[]> sols) {
+
+        long start = System.nanoTime();
+        int n = sols.size();
+
+        this.coords = new double[n][];
+        this.rg = new double[n];
+        for(int s = 0; s < n; s++)
+            this.center(s, sols.get(s));
+
+        this.choose_pivots(n);
+
+        this.order = new Integer[n];
+        for(int s = 0; s < n; s++)
+            this.order[s] = s;
+        Arrays.sort(this.order, (a, b) -> Double.compare(this.pivotRmsd[a*this.pivots], this.pivotRmsd[b*this.pivots]));
+
+        //neighbours later in the order are found in parallel, and then
+        //copied to the other side of each pair
+        int[][] later = new int[n][];
+        this.pool.invoke(new NeighbourTask(later, 0, n));
+        this.neighbours = mirror_pairs(later, n);
+
+        this.assign_clusters(n);
+
+        ArrayList<Integer> reps = new ArrayList<>(this.representatives);
+        Collections.sort(reps);
+
+        ArrayList<Node[]> result = new ArrayList<>(reps.size());
+        for(int r : reps)
+            result.add(sols.get(r));
+
+        this.nanos = System.nanoTime() - start;
+
+        return result;
+    }
+
+    //copies the atoms of a solution, moving its centroid to the origin, and
+    //finds its radius of gyration
+    private void center(int s, Node[] sol) {
+
+        int atoms = sol.length;
+        double[] c = new double[3*atoms];
+        double cx = 0, cy = 0, cz = 0;
+
+        for(int i = 0; i < atoms; i++) {
+
+            Atom a = sol[i].get_atom();
+            c[3*i] = a.get_xCoord();
+            c[3*i+1] = a.get_yCoord();
+            c[3*i+2] = a.get_zCoord();
+            cx += c[3*i];
+            cy += c[3*i+1];
+            cz += c[3*i+2];
+        }
+
+        cx /= atoms;
+        cy /= atoms;
+        cz /= atoms;
+
+        double g = 0;
+        for(int i = 0; i < atoms; i++) {
+
+            c[3*i] -= cx;
+            c[3*i+1] -= cy;
+            c[3*i+2] -= cz;
+            g += c[3*i]*c[3*i] + c[3*i+1]*c[3*i+1] + c[3*i+2]*c[3*i+2];
+        }
+
+        this.coords[s] = c;
+        this.rg[s] = Math.sqrt(g/atoms);
+    }
+
+    //chooses the pivots by farthest first traversal: the first solution, and
+    //then each time the solution furthest from every pivot chosen so far. 
+    //the RMSD of every solution to every pivot is kept.
+    private void choose_pivots(int n) {
+
+        //each pivot costs a superposition per solution, so small families
+        //get fewer of them
+        this.pivots = Math.max(1, Math.min(PIVOTS, n/16));
+        this.pivotRmsd = new double[n*this.pivots];
+
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        int pivot = 0;
+
+        for(int k = 0; k < this.pivots; k++) {
+
+            this.pool.invoke(new PivotTask(pivot, k, 0, n));
+
+            int furthest = 0;
+            for(int s = 0; s < n; s++) {
+                nearest[s] = Math.min(nearest[s], this.pivotRmsd[s*this.pivots + k]);
+                if(nearest[s] > nearest[furthest])
+                    furthest = s;
+            }
+
+            pivot = furthest;
+        }
+
+        this.superpositions.addAndGet((long)n*this.pivots);
+    }
+
+    //finds the neighbours of the solution at position p of the order among
+    //the solutions after it. the RMSDs to the first pivot never differ by 
+    //more than the RMSD between the two solutions, so the search stops at
+    //the first solution whose RMSD to it is too large. the radius of 
+    //gyration bounds the RMSD from below in the same way.
+    private int[] find_later(int p) {
+
+        int a = this.order[p];
+        int[] found = new int[8];
+        int count = 0;
+        int pa = a*this.pivots;
+        long superposed = 0, rejects = 0, accepts = 0;
+
+        for(int q = p+1; q < this.order.length; q++) {
+
+            int b = this.order[q];
+            int pb = b*this.pivots;
+
+            if(this.pivotRmsd[pb] - this.pivotRmsd[pa] > this.tolerance + SLACK)
+                break;
+
+            //the bounds are tightened pivot by pivot until one decides
+            double lower = Math.abs(this.rg[b] - this.rg[a]);
+            double upper = Double.MAX_VALUE;
+
+            for(int k = 0; k < this.pivots && lower <= this.tolerance + SLACK && upper >= this.tolerance - SLACK; k++) {
+                lower = Math.max(lower, Math.abs(this.pivotRmsd[pb+k] - this.pivotRmsd[pa+k]));
+                upper = Math.min(upper, this.pivotRmsd[pb+k] + this.pivotRmsd[pa+k]);
+            }
+
+            boolean neighbour;
+
+            if(lower > this.tolerance + SLACK) {
+                rejects++;
+                neighbour = false;
+            }
+            else
+            if(upper < this.tolerance - SLACK) {
+                accepts++;
+                neighbour = true;
+            }
+            else {
+                superposed++;
+                neighbour = rmsd(this.coords[a], this.coords[b]) <= this.tolerance;
+            }
+
+            if(neighbour) {
+
+                if(count == found.length)
+                    found = Arrays.copyOf(found, 2*count);
+                found[count++] = b;
+            }
+        }
+
+        //the counts are shared by every worker, so they are only added to
+        //once per solution
+        this.superpositions.addAndGet(superposed);
+        this.rejected.addAndGet(rejects);
+        this.accepted.addAndGet(accepts);
+
+        return Arrays.copyOf(found, count);
+    }
+
+    //turns the neighbours found later in the order into the full list of
+    //neighbours of every solution, each sorted by solution
+    private static int[][] mirror_pairs(int[][] later, int n) {
+
+        int[] degree = new int[n];
+        for(int a = 0; a < n; a++)
+            if(later[a] != null)
+                for(int b : later[a]) {
+                    degree[a]++;
+                    degree[b]++;
+                }
+
+        int[][] all = new int[n][];
+        for(int a = 0; a < n; a++)
+            all[a] = new int[degree[a]];
+
+        int[] fill = new int[n];
+        for(int a = 0; a < n; a++)
+            if(later[a] != null)
+                for(int b : later[a]) {
+                    all[a][fill[a]++] = b;
+                    all[b][fill[b]++] = a;
+                }
+
+        for(int[] row : all)
+            Arrays.sort(row);
+
+        return all;
+    }
+
+    //repeatedly takes the unassigned solution with the most unassigned
+    //neighbours (the first in the list on a tie) as a representative, and
+    //assigns it and those neighbours to a new cluster
+    private void assign_clusters(int n) {
+
+        this.cluster = new int[n];
+        Arrays.fill(this.cluster, -1);
+        this.representatives = new ArrayList<>();
+
+        int[] free = new int[n];
+        for(int s = 0; s < n; s++)
+            free[s] = this.neighbours[s].length;
+
+        //a queue of solutions by their unassigned neighbours, most first.
+        //counts only fall, so an entry whose count is out of date is put
+        //back with the current count when it is taken.
+        PriorityQueue<long[]> queue = new PriorityQueue<>((x, y) -> x[0] != y[0] ? Long.compare(y[0], x[0]) : Long.compare(x[1], y[1]));
+        for(int s = 0; s < n; s++)
+            queue.add(new long[]{free[s], s});
+
+        while(!queue.isEmpty()) {
+
+            long[] top = queue.poll();
+            int best = (int)top[1];
+
+            if(this.cluster[best] >= 0)
+                continue;
+
+            if(top[0] != free[best]) {
+                queue.add(new long[]{free[best], best});
+                continue;
+            }
+
+            int c = this.representatives.size();
+            this.representatives.add(best);
+
+            ArrayList<Integer> members = new ArrayList<>();
+            members.add(best);
+            for(int b : this.neighbours[best])
+                if(this.cluster[b] < 0)
+                    members.add(b);
+
+            for(int m : members) {
+
+                this.cluster[m] = c;
+
+                for(int b : this.neighbours[m])
+                    free[b]--;
+            }
+        }
+    }
+
+    //RMSD between two centred structures of the same number of atoms after
+    //optimal rotation, by the quaternion characteristic polynomial method
+    //(Theobald, 2005). the largest eigenvalue of the key matrix is found by
+    //Newton's method from an upper bound.
+    public static double rmsd(double[] a, double[] b) {
+
+        int atoms = a.length/3;
+        double ga = 0, gb = 0;
+        double sxx = 0, sxy = 0, sxz = 0, syx = 0, syy = 0, syz = 0, szx = 0, szy = 0, szz = 0;
+
+        for(int i = 0; i < a.length; i += 3) {
+
+            double ax = a[i], ay = a[i+1], az = a[i+2];
+            double bx = b[i], by = b[i+1], bz = b[i+2];
+
+            ga += ax*ax + ay*ay + az*az;
+            gb += bx*bx + by*by + bz*bz;
+
+            sxx += ax*bx; sxy += ax*by; sxz += ax*bz;
+            syx += ay*bx; syy += ay*by; syz += ay*bz;
+            szx += az*bx; szy += az*by; szz += az*bz;
+        }
+
+        double e0 = (ga + gb)/2;
+
+        double sxx2 = sxx*sxx, syy2 = syy*syy, szz2 = szz*szz;
+        double sxy2 = sxy*sxy, syz2 = syz*syz, sxz2 = sxz*sxz;
+        double syx2 = syx*syx, szy2 = szy*szy, szx2 = szx*szx;
+
+        double syzSzymSyySzz2 = 2*(syz*szy - syy*szz);
+        double sxx2Syy2Szz2Syz2Szy2 = syy2 + szz2 - sxx2 + syz2 + szy2;
+        double sxy2Sxz2Syx2Szx2 = sxy2 + sxz2 - syx2 - szx2;
+
+        double sxzpSzx = sxz + szx, syzpSzy = syz + szy, sxypSyx = sxy + syx;
+        double syzmSzy = syz - szy, sxzmSzx = sxz - szx, sxymSyx = sxy - syx;
+        double sxxpSyy = sxx + syy, sxxmSyy = sxx - syy;
+
+        double c2 = -2*(sxx2 + syy2 + szz2 + sxy2 + syx2 + sxz2 + szx2 + syz2 + szy2);
+        double c1 = 8*(sxx*syz*szy + syy*szx*sxz + szz*sxy*syx - sxx*syy*szz - syz*szx*sxy - szy*syx*sxz);
+        double c0 = sxy2Sxz2Syx2Szx2*sxy2Sxz2Syx2Szx2
+                  + (sxx2Syy2Szz2Syz2Szy2 + syzSzymSyySzz2)*(sxx2Syy2Szz2Syz2Szy2 - syzSzymSyySzz2)
+                  + (-sxzpSzx*syzmSzy + sxymSyx*(sxxmSyy - szz))*(-sxzmSzx*syzpSzy + sxymSyx*(sxxmSyy + szz))
+                  + (-sxzpSzx*syzpSzy - sxypSyx*(sxxpSyy - szz))*(-sxzmSzx*syzmSzy - sxypSyx*(sxxpSyy + szz))
+                  + (sxypSyx*syzpSzy + sxzpSzx*(sxxmSyy + szz))*(-sxymSyx*syzmSzy + sxzpSzx*(sxxpSyy + szz))
+                  + (sxypSyx*syzmSzy + sxzmSzx*(sxxmSyy - szz))*(-sxymSyx*syzpSzy + sxzmSzx*(sxxpSyy - szz));
+
+        double lambda = e0;
+        for(int it = 0; it < 50; it++) {
+
+            double old = lambda;
+            double x2 = lambda*lambda;
+            double bb = (x2 + c2)*lambda;
+            double aa = bb + c1;
+            double delta = (aa*lambda + c0)/(2*x2*lambda + bb + aa);
+            lambda -= delta;
+
+            if(Math.abs(lambda - old) < Math.abs(1e-11*lambda))
+                break;
+        }
+
+        return Math.sqrt(Math.abs(2*(e0 - lambda)/atoms));
+    }
+
+    //finds the neighbours of the solutions at positions from to to
+    //(exclusive) of the order, splitting the range in half until it is small
+    //enough to be done by one worker
+    private class NeighbourTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int[][] later;
+        private int from, to;
+
+        NeighbourTask(int[][] l, int f, int t) {
+
+            this.later = l;
+            this.from = f;
+            this.to = t;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(this.to - this.from > 16) {
+
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new NeighbourTask(this.later, this.from, mid), new NeighbourTask(this.later, mid, this.to));
+            }
+            else
+                for(int p = this.from; p < this.to; p++)
+                    this.later[order[p]] = find_later(p);
+        }
+    }
+
+    //finds the RMSD of the solutions from to to (exclusive) to a pivot,
+    //splitting the range in half until it is small enough to be done by one
+    //worker
+    private class PivotTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int pivot, col, from, to;
+
+        PivotTask(int p, int c, int f, int t) {
+
+            this.pivot = p;
+            this.col = c;
+            this.from = f;
+            this.to = t;
+        }
+
+        @Override
+        protected void compute() {
+
+            if(this.to - this.from > 256) {
+
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new PivotTask(this.pivot, this.col, this.from, mid), new PivotTask(this.pivot, this.col, mid, this.to));
+            }
+            else
+                for(int s = this.from; s < this.to; s++)
+                    pivotRmsd[s*pivots + this.col] = s == this.pivot ? 0 : rmsd(coords[this.pivot], coords[s]);
+        }
+    }
+
+    //stops the threads of the pool
+    public void shutdown()
+        {this.pool.shutdown();}
+
+    //getter for the cluster of each solution, by its position in the list
+    public int[] get_clusters()
+        {return this.cluster;}
+
+    //getter for number of superpositions made
+    public long get_superpositions()
+        {return this.superpositions.get();}
+
+    //prints to screen the number of clusters and the work done finding them
+    public void print_summary() {
+
+        int n = this.cluster.length;
+        int[] sizes = new int[this.representatives.size()];
+        for(int c : this.cluster)
+            sizes[c]++;
+
+        int largest = 0;
+        for(int s : sizes)
+            largest = Math.max(largest, s);
+
+        System.out.println("SOLUTION CLUSTERS");
+        System.out.println("solutions:          " + n);
+        System.out.println("RMSD tolerance:     " + this.tolerance);
+        System.out.println("clusters:           " + sizes.length);
+        System.out.println("largest cluster:    " + largest);
+        System.out.println("superpositions:     " + this.superpositions.get() + " of " + (long)n*(n-1)/2);
+        System.out.println("bounded, rejected:  " + this.rejected.get());
+        System.out.println("bounded, accepted:  " + this.accepted.get());
+        System.out.println("time (ms):          " + String.format("%.3f", this.nanos/1e6));
+        System.out.println();
+    }
+}
@@ -0,0 +1,15 @@
+/*
+ * The purpose of this interface is to receive each solution as soon as it is
+ * found, so that solutions can be written, scored or counted without first
+ * being collected into a list.
+ */
+
+
+public interface SolutionConsumer {
+    
+    //receives a solution, deepest node first, along with its DME
+    public void accept(Node[] sol, double dme);
+    
+    //called once the search has finished
+    public void finish();
+}
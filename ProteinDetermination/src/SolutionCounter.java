@@ -0,0 +1,46 @@
+/*
+ * The purpose of this class is to count the solutions it receives, and to 
+ * record how long it took for the first one to arrive.
+ */
+
+
+public class SolutionCounter implements SolutionConsumer {
+    
+    //number of solutions received
+    private long count;
+    
+    //time at which counting began, and at which the first solution arrived
+    private long start, first;
+    
+    //constructor
+    public SolutionCounter() {
+        
+        this.count = 0;
+        this.start = System.nanoTime();
+        this.first = -1;
+    }
+    
+    @Override
+    public void accept(Node[] sol, double dme) {
+        
+        if(this.count++ == 0)
+            this.first = System.nanoTime();
+    }
+    
+    @Override
+    public void finish() {
+        
+        System.out.println("SOLUTION COUNT");
+        System.out.println("solutions:                " + this.count);
+        
+        if(this.first >= 0)
+            System.out.println("first solution after (ms): " + String.format("%.3f", (this.first - this.start)/1e6));
+        
+        System.out.println("total time (ms):          " + String.format("%.3f", (System.nanoTime() - this.start)/1e6));
+        System.out.println();
+    }
+    
+    //getter for number of solutions
+    public long get_count()
+        {return this.count;}
+}
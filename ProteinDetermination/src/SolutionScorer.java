@@ -0,0 +1,59 @@
+/*
+ * The purpose of this class is to score the solutions it receives by their
+ * DME, keeping only the best solution rather than every one of them.
+ */
+
+
+public class SolutionScorer implements SolutionConsumer {
+    
+    //best solution so far, and its DME
+    private Node[] best;
+    private double bestDME;
+    
+    //number of solutions received, and the sum of their DMEs
+    private long count;
+    private double sumDME;
+    
+    //constructor
+    public SolutionScorer() {
+        
+        this.best = null;
+        this.bestDME = Double.MAX_VALUE;
+        this.count = 0;
+        this.sumDME = 0;
+    }
+    
+    @Override
+    public void accept(Node[] sol, double dme) {
+        
+        this.count++;
+        this.sumDME += dme;
+        
+        if(dme < this.bestDME) {
+            this.best = sol;
+            this.bestDME = dme;
+        }
+    }
+    
+    @Override
+    public void finish() {
+        
+        System.out.println("SOLUTION SCORES");
+        System.out.println("solutions:  " + this.count);
+        
+        if(this.count > 0) {
+            System.out.println("best DME:   " + this.bestDME);
+            System.out.println("mean DME:   " + this.sumDME/this.count);
+        }
+        
+        System.out.println();
+    }
+    
+    //getter for best solution
+    public Node[] get_best()
+        {return this.best;}
+    
+    //getter for DME of the best solution
+    public double get_bestDME()
+        {return this.bestDME;}
+}
@@ -0,0 +1,101 @@
+/*
+ * The purpose of this class is to search only one half of the protein tree.
+ * The first three atoms are fixed in the plane z = 0, so the two positions of
+ * the fourth atom are reflections of each other through that plane, and so is
+ * every structure below them, since a reflection changes no distance and
+ * therefore no pruning decision. Only the subtree of the left child of the
+ * third node is searched, and the solutions of the right subtree are produced
+ * by negating the z coordinate of each atom. A mirrored path takes the
+ * opposite branch at every level, so the mirrored solutions are given in the
+ * reverse order of the ones they were made from.
+ */
+
+import java.util.*;
+
+public class SymmetricSearch {
+
+    //expands the third node
+    private ProteinDetermination pd;
+
+    //constructor
+    public SymmetricSearch(ProteinDetermination p)
+        {this.pd = p;}
+
+    //creates both children of the third node and discards the right one,
+    //leaving the left child, at level 4, as the last node of the arena.
+    //returns the left child, or -1 if it was pruned (in which case its
+    //reflection was pruned as well).
+    public int expand_half(ProteinTree pt, ArrayList<Distance> covDistances, RestraintIndex nmr) {
+
+        NodeArena arena = pt.get_arena();
+        PruneTree prune = this.pd.create_prune(arena, nmr);
+
+        this.pd.label_level(arena, 4, covDistances);
+        this.pd.expand_node(pt, prune, pt.get_node3(), 3);
+
+        int left = arena.get_size()-2;
+        arena.truncate(left+1);
+
+        return arena.get_stop(left) ? -1 : left;
+    }
+
+    //returns the solutions of the searched half followed, unless only one
+    //enantiomer is wanted, by their reflections in reverse order
+    public static ArrayList<Node[]> with_mirrors(ArrayList<Node[]> half, boolean oneEnantiomer) {
+
+        ArrayList<Node[]> all = new ArrayList<>(half);
+
+        if(!oneEnantiomer)
+            for(int k = half.size()-1; k >= 0; k--)
+                all.add(mirror(half.get(k)));
+
+        return all;
+    }
+
+    //reflects a solution through the plane z = 0
+    public static Node[] mirror(Node[] sol) {
+
+        Node[] m = new Node[sol.length];
+
+        for(int k = 0; k < sol.length; k++) {
+
+            //0.0-z rather than -z, so that atoms in the plane aren't given
+            //a negative zero
+            Atom a = sol[k].get_atom();
+            m[k] = new Node(sol[k].get_index(), new Atom(a.get_name(), a.get_index(), a.get_xCoord(), a.get_yCoord(), 0.0 - a.get_zCoord()), null, false, false);
+
+            if(k > 0)
+                m[k-1].set_parent(m[k]);
+        }
+
+        return m;
+    }
+
+    //passes every solution to the consumer it wraps, followed by its
+    //reflection unless only one enantiomer is wanted. solutions are streamed,
+    //so each reflection follows the solution it was made from.
+    public static class MirroringConsumer implements SolutionConsumer {
+
+        private SolutionConsumer consumer;
+        private boolean oneEnantiomer;
+
+        public MirroringConsumer(SolutionConsumer c, boolean one) {
+
+            this.consumer = c;
+            this.oneEnantiomer = one;
+        }
+
+        @Override
+        public void accept(Node[] sol, double dme) {
+
+            this.consumer.accept(sol, dme);
+
+            if(!this.oneEnantiomer)
+                this.consumer.accept(mirror(sol), dme);
+        }
+
+        @Override
+        public void finish()
+            {this.consumer.finish();}
+    }
+}
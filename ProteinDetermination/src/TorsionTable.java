@@ -0,0 +1,105 @@
+/*
+ * The purpose of this class is to hold the torsion matrices of every level of
+ * the protein tree. The bond length, bond angle and torsion angle that place
+ * an atom depend only on the distances among it and the three atoms before
+ * it, never on the branch of the tree, so both candidate matrices of a level,
+ * one for +omega and one for -omega, are computed once before the search.
+ * Their entries are found straight from the cosines given by the law of
+ * cosines, with no inverse trigonometric function involved, and creating a
+ * node is then a single product of its parent's matrix with one of them.
+ */
+
+import java.util.*;
+
+public class TorsionTable {
+
+    //packed torsion matrices, the +omega matrix of a level followed by its
+    //-omega matrix
+    private double[] matrices;
+
+    //deepest level whose matrices are known
+    private int levels;
+
+    //constructor. pairs holds the distances between the atoms of a backbone
+    //of the given number of atoms, by position. the matrices of a level can
+    //only be computed if the distances among its atom and the three atoms
+    //before it are all known.
+    public TorsionTable(PairBuffer pairs, int atoms) {
+
+        this.matrices = new double[2*(atoms+1)*TorsionMatrix.SIZE];
+        this.levels = Math.min(atoms, 3);
+
+        //position of every pair, keyed by the positions of its atoms
+        HashMap<Long, Integer> index = new HashMap<>();
+        for(int k = 0; k < pairs.get_size(); k++)
+            index.put(key(pairs.get_atom1(k), pairs.get_atom2(k), atoms), k);
+
+        TorsionMatrix tm = new TorsionMatrix();
+
+        for(int level = 4; level <= atoms; level++) {
+
+            //positions of atoms i-3 to i, where atom i is placed at this level
+            int a = level-4, b = level-3, c = level-2, d = level-1;
+
+            double[] dist = new double[6];
+            int[][] needed = {{a, b}, {b, c}, {c, d}, {a, c}, {b, d}, {a, d}};
+
+            for(int k = 0; k < needed.length; k++) {
+
+                Integer p = index.get(key(needed[k][0], needed[k][1], atoms));
+                if(p == null)
+                    return;
+
+                dist[k] = pairs.get_distance(p);
+            }
+
+            double ab = dist[0], bc = dist[1], cd = dist[2], ac = dist[3], bd = dist[4], ad = dist[5];
+
+            //bond angle at atom i-1
+            double cos_theta = cosine(bc, cd, bd);
+            double sin_theta = Math.sqrt(1 - cos_theta*cos_theta);
+
+            //angles at atom i-2 between the bond to atom i-1 and the lines to
+            //atoms i-3 and i, and between the lines to atoms i-3 and i. the
+            //torsion angle follows from the spherical law of cosines.
+            double cos_a = cosine(ab, bc, ac);
+            double cos_b = cosine(bc, bd, cd);
+            double cos_d = cosine(ab, bd, ad);
+            double sines = Math.sqrt((1 - cos_a*cos_a)*(1 - cos_b*cos_b));
+
+            double cos_omega = sines < 1e-12 ? 1 : clamp((cos_d - cos_a*cos_b)/sines);
+            double sin_omega = Math.sqrt(1 - cos_omega*cos_omega);
+
+            tm.generate_Bi(cos_theta, sin_theta, cos_omega, sin_omega, cd, this.matrices, this.get_offset(level, false));
+            tm.generate_Bi(cos_theta, sin_theta, cos_omega, -sin_omega, cd, this.matrices, this.get_offset(level, true));
+
+            this.levels = level;
+        }
+    }
+
+    //key of the pair of atoms at positions i and j
+    private static long key(int i, int j, int atoms)
+        {return (long)Math.min(i, j)*atoms + Math.max(i, j);}
+
+    //cosine of the angle between the sides of lengths d1 and d2 of a
+    //triangle whose third side is d3
+    private static double cosine(double d1, double d2, double d3)
+        {return clamp((d1*d1 + d2*d2 - d3*d3)/(2*d1*d2));}
+
+    //keeps a cosine computed from rounded distances within [-1,1]
+    private static double clamp(double c)
+        {return Math.max(-1, Math.min(1, c));}
+
+    //getter for the matrices of every level
+    public double[] get_matrices()
+        {return this.matrices;}
+
+    //offset within the matrices of the torsion matrix of a level, for the
+    //right (-omega) child if right is set
+    public int get_offset(int level, boolean right)
+        {return (2*level + (right ? 1 : 0))*TorsionMatrix.SIZE;}
+
+    //getter for the deepest level whose matrices are known
+    public int get_levels()
+        {return this.levels;}
+}